@@ -0,0 +1,208 @@
+package benchmark;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import it.polito.flightbooking.FlightException;
+import it.polito.flightbooking.FlightManager;
+import it.polito.flightbooking.FlightMetrics;
+
+// in-process booking storm: builds a synthetic network, then N threads replay a mix of searches, bookings
+// and cancellations against one FlightManager, whose own metrics record the latency of every call.
+// legs are picked with a Zipf distribution over a shuffled popularity ranking, so a few legs take most
+// of the traffic and fill up, as on a Friday evening. each thread is a closed loop (next call when the
+// previous one returns), so latencies are service times and not response times under a fixed arrival rate.
+//
+// usage: java -cp <classpath> benchmark.BookingLoadGenerator [--option=value ...]
+//   --threads=8 --warmup=5 --seconds=30 --mix=90:8:2 (search:book:cancel weights)
+//   --airports=2000 --legs=20000 --zipf=1.1 --seed=42
+public class BookingLoadGenerator {
+    private static final String[] OPERATIONS = {"search", "book", "cancel"};
+    // the FlightManager methods behind the operations, as named in its metrics
+    private static final String[] METHODS = {"findAvailableSeats", "bookSeat", "cancelBooking"};
+    private static final int SEARCH = 0;
+    private static final int BOOK = 1;
+    private static final int CANCEL = 2;
+
+    private final FlightManager fm;
+    private final SyntheticNetwork network;
+    // cumulative Zipf weights by popularity rank, and the leg holding each rank
+    private final double[] cumulative;
+    private final int[] legByRank;
+    private final int[] mix;
+    private volatile boolean running = true;
+
+    public BookingLoadGenerator(SyntheticNetwork network, double zipfExponent, int[] mix, long seed) {
+        this.network = network;
+        this.fm = network.getManager();
+        this.mix = mix;
+        int legs = network.getLegCount();
+        cumulative = new double[legs];
+        double sum = 0;
+        for (int rank = 0; rank < legs; rank++) {
+            sum += 1.0 / Math.pow(rank + 1, zipfExponent);
+            cumulative[rank] = sum;
+        }
+        legByRank = new int[legs];
+        for (int i = 0; i < legs; i++) {
+            legByRank[i] = i;
+        }
+        Random random = new Random(seed);
+        for (int i = legs - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swap = legByRank[i];
+            legByRank[i] = legByRank[j];
+            legByRank[j] = swap;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Options have the form --name=value: " + arg);
+            }
+            options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+        int threads = Integer.parseInt(options.getOrDefault("threads", "8"));
+        int warmup = Integer.parseInt(options.getOrDefault("warmup", "5"));
+        int seconds = Integer.parseInt(options.getOrDefault("seconds", "30"));
+        int airports = Integer.parseInt(options.getOrDefault("airports", "2000"));
+        int legs = Integer.parseInt(options.getOrDefault("legs", "20000"));
+        double zipf = Double.parseDouble(options.getOrDefault("zipf", "1.1"));
+        long seed = Long.parseLong(options.getOrDefault("seed", "42"));
+        String[] weights = options.getOrDefault("mix", "90:8:2").split(":");
+        if (weights.length != OPERATIONS.length) {
+            throw new IllegalArgumentException("--mix needs search:book:cancel weights");
+        }
+        int[] mix = new int[weights.length];
+        for (int i = 0; i < weights.length; i++) {
+            mix[i] = Integer.parseInt(weights[i]);
+        }
+
+        System.out.printf("building %d airports, %d legs%n", airports, legs);
+        SyntheticNetwork network = new SyntheticNetwork(airports, legs, seed);
+        BookingLoadGenerator generator = new BookingLoadGenerator(network, zipf, mix, seed);
+        System.out.printf("%d threads, mix %s, zipf %.2f, %ds warm-up, %ds measured%n",
+                threads, options.getOrDefault("mix", "90:8:2"), zipf, warmup, seconds);
+        generator.run(threads, warmup, seconds).print(System.out);
+    }
+
+    public Report run(int threads, int warmupSeconds, int seconds) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            Thread thread = new Thread(new Worker(t, done), "load-" + t);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        Thread.sleep(warmupSeconds * 1000L);
+        // re-enabling opens a new metrics window, so the warm-up is left out
+        fm.setMetricsEnabled(false);
+        fm.setMetricsEnabled(true);
+        Thread.sleep(seconds * 1000L);
+        FlightMetrics metrics = fm.getMetrics();
+        fm.setMetricsEnabled(false);
+        running = false;
+        done.await();
+        return new Report(metrics);
+    }
+
+    // a leg by popularity: binary search of a uniform draw in the cumulative weights
+    private int popularLeg(Random random) {
+        double draw = random.nextDouble() * cumulative[cumulative.length - 1];
+        int rank = Arrays.binarySearch(cumulative, draw);
+        return legByRank[rank >= 0 ? rank : Math.min(-rank - 1, cumulative.length - 1)];
+    }
+
+    private int chooseOperation(Random random) {
+        int total = mix[SEARCH] + mix[BOOK] + mix[CANCEL];
+        int draw = random.nextInt(total);
+        return draw < mix[SEARCH] ? SEARCH : draw < mix[SEARCH] + mix[BOOK] ? BOOK : CANCEL;
+    }
+
+    private class Worker implements Runnable {
+        private final int id;
+        private final CountDownLatch done;
+        private final Random random;
+        // this thread's own bookings, the pool it cancels from
+        private final List<String> bookings = new ArrayList<>();
+
+        Worker(int id, CountDownLatch done) {
+            this.id = id;
+            this.done = done;
+            this.random = new Random(id * 7919L + 1);
+        }
+
+        @Override
+        public void run() {
+            try {
+                long passenger = 0;
+                while (running) {
+                    int op = chooseOperation(random);
+                    if (op == CANCEL && bookings.isEmpty()) {
+                        op = BOOK;
+                    }
+                    int leg = popularLeg(random);
+                    int[] journeyLegs = network.getJourneyLegs(leg, random);
+                    String[] journey = network.getJourney(journeyLegs);
+                    // a seat beyond the smallest plane of the journey would always be rejected
+                    int seat = 1 + random.nextInt(network.getCapacity(journeyLegs));
+                    String cancelled = null;
+                    if (op == CANCEL) {
+                        int index = random.nextInt(bookings.size());
+                        cancelled = bookings.get(index);
+                        bookings.set(index, bookings.get(bookings.size() - 1));
+                        bookings.remove(bookings.size() - 1);
+                    }
+
+                    try {
+                        if (op == SEARCH) {
+                            fm.findAvailableSeats(journey[0], journey[1]);
+                        } else if (op == BOOK) {
+                            bookings.add(fm.bookSeat("L" + id + "-" + passenger++, journey[0], journey[1], seat));
+                        } else {
+                            fm.cancelBooking(cancelled);
+                        }
+                    } catch (FlightException e) {
+                        // a seat taken in the meantime: counted as an error by the metrics
+                    }
+                }
+            } finally {
+                done.countDown();
+            }
+        }
+    }
+
+    public static class Report {
+        private final FlightMetrics metrics;
+
+        Report(FlightMetrics metrics) {
+            this.metrics = metrics;
+        }
+
+        // percentiles are upper bounds within the 12.5% resolution of the metrics histograms
+        public void print(PrintStream out) {
+            double seconds = metrics.getElapsedSeconds();
+            out.printf("%-8s %12s %12s %10s %10s %10s %10s %10s%n",
+                    "op", "count", "ops/s", "rejected", "p50 us", "p99 us", "p99.9 us", "max us");
+            long count = 0;
+            long rejected = 0;
+            for (int op = 0; op < OPERATIONS.length; op++) {
+                String method = METHODS[op];
+                count += metrics.getCount(method);
+                rejected += metrics.getErrorCount(method);
+                out.printf("%-8s %12d %12.0f %10d %10.1f %10.1f %10.1f %10.1f%n", OPERATIONS[op],
+                        metrics.getCount(method), metrics.getCount(method) / seconds, metrics.getErrorCount(method),
+                        metrics.getLatencyPercentile(method, 50) / 1e3, metrics.getLatencyPercentile(method, 99) / 1e3,
+                        metrics.getLatencyPercentile(method, 99.9) / 1e3, metrics.getLatencyPercentile(method, 100) / 1e3);
+            }
+            out.printf("%-8s %12d %12.0f %10d%n", "total", count, count / seconds, rejected);
+        }
+    }
+}
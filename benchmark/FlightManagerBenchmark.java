@@ -0,0 +1,151 @@
+package benchmark;
+
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import it.polito.flightbooking.FlightException;
+import it.polito.flightbooking.FlightManager;
+import it.polito.flightbooking.RoutePreference;
+
+// JMH benchmarks of the FlightManager hot paths on a production-sized synthetic network
+// (10k airports, 100k legs, every leg already carrying some bookings).
+// needs jmh-core and jmh-generator-annprocess on the compile classpath; run with, for example,
+//   java -cp <classpath> org.openjdk.jmh.Main benchmark.FlightManagerBenchmark -prof gc
+// where -prof gc adds the allocation rate (gc.alloc.rate.norm, bytes per operation) to every result.
+// -t N runs every benchmark from N threads at once.
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class FlightManagerBenchmark {
+    private static final int JOURNEYS = 1 << 12;
+
+    @Param("10000")
+    public int airports;
+
+    @Param("100000")
+    public int legs;
+
+    // seats 1..bookingsPerLeg of every leg are booked before measuring
+    @Param("10")
+    public int bookingsPerLeg;
+
+    private SyntheticNetwork network;
+    private FlightManager fm;
+    // departure and arrival of one- and two-leg journeys, drawn once
+    private String[][] journeys;
+    // departure and arrival of each leg, and the passenger booking it in the bookSeat benchmark,
+    // built here so the measured calls neither copy nor concatenate
+    private String[][] legEnds;
+    private String[] passengers;
+    // bookings made by the bookSeat benchmark, cancelled after every iteration
+    private final Queue<String> madeBookings = new ConcurrentLinkedQueue<>();
+
+    // per-thread choice of legs and seats, so threads do not share a random generator
+    @State(Scope.Thread)
+    public static class Cursor {
+        private final Random random = new Random(Thread.currentThread().getId());
+
+        int nextInt(int bound) {
+            return random.nextInt(bound);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws FlightException {
+        network = new SyntheticNetwork(airports, legs, 42);
+        fm = network.getManager();
+        for (int leg = 0; leg < network.getLegCount(); leg++) {
+            String[] ends = network.getLeg(leg);
+            for (int seat = 1; seat <= bookingsPerLeg; seat++) {
+                fm.bookSeat("P" + leg + "-" + seat, ends[0], ends[1], seat);
+            }
+        }
+        legEnds = new String[network.getLegCount()][];
+        passengers = new String[network.getLegCount()];
+        for (int leg = 0; leg < passengers.length; leg++) {
+            legEnds[leg] = network.getLeg(leg);
+            passengers[leg] = "B" + leg;
+        }
+        Random random = new Random(7);
+        journeys = new String[JOURNEYS][];
+        for (int i = 0; i < JOURNEYS; i++) {
+            journeys[i] = network.getJourney(random.nextInt(network.getLegCount()), random);
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void cancelBookings() throws FlightException {
+        String code;
+        while ((code = madeBookings.poll()) != null) {
+            fm.cancelBooking(code);
+        }
+    }
+
+    // a random seat above the prefilled ones on a random leg; taken seats fail like in production
+    @Benchmark
+    public String bookSeat(Cursor cursor) {
+        int leg = cursor.nextInt(network.getLegCount());
+        String[] ends = legEnds[leg];
+        int seat = bookingsPerLeg + 1 + cursor.nextInt(network.getCapacity(leg) - bookingsPerLeg);
+        try {
+            String code = fm.bookSeat(passengers[leg], ends[0], ends[1], seat);
+            madeBookings.add(code);
+            return code;
+        } catch (FlightException e) {
+            return null;
+        }
+    }
+
+    // route already in the cache
+    @Benchmark
+    public Object findAvailableSeats(Cursor cursor) throws FlightException {
+        String[] journey = journeys[cursor.nextInt(JOURNEYS)];
+        return fm.findAvailableSeats(journey[0], journey[1]);
+    }
+
+    // the same query after the route cache is dropped, so every call resolves its route again;
+    // the difference with findAvailableSeats is the cost of route resolution
+    @Benchmark
+    public Object findAvailableSeatsColdRoute(Cursor cursor) throws FlightException {
+        fm.setRoutePreference(RoutePreference.FEWEST_LEGS);
+        String[] journey = journeys[cursor.nextInt(JOURNEYS)];
+        return fm.findAvailableSeats(journey[0], journey[1]);
+    }
+
+    @Benchmark
+    public Object listBookingsForLeg(Cursor cursor) {
+        String[] ends = legEnds[cursor.nextInt(legEnds.length)];
+        return fm.listBookingsForLeg(ends[0], ends[1]);
+    }
+
+    @Benchmark
+    public String mostPopularLeg() {
+        return fm.mostPopularLeg();
+    }
+
+    @Benchmark
+    public void occupationRate(Cursor cursor, Blackhole blackhole) {
+        String[] ends = legEnds[cursor.nextInt(legEnds.length)];
+        blackhole.consume(fm.occupationRate(ends[0], ends[1]));
+    }
+}
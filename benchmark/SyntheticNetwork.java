@@ -0,0 +1,141 @@
+package benchmark;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import it.polito.flightbooking.FlightException;
+import it.polito.flightbooking.FlightManager;
+
+// deterministic synthetic network for benchmarks and load tests, built through the public FlightManager API.
+// airports are scattered over the globe; leg endpoints are skewed towards low airport numbers,
+// so a few hubs collect most of the traffic as in real networks. every leg gets a plane from a realistic fleet.
+public final class SyntheticNetwork {
+    private static final String[] FLEET = {"ATR72", "A320", "B737", "A350", "B777"};
+    private static final int[] FLEET_SEATS = {70, 180, 189, 325, 396};
+    // share of legs flown by each plane type, in tenths
+    private static final int[] FLEET_WEIGHTS = {2, 4, 2, 1, 1};
+
+    private final FlightManager manager;
+    private final String[] airports;
+    private final List<String[]> legs = new ArrayList<>();
+    private final List<Integer> capacities = new ArrayList<>();
+    // arrival airport index of each leg, and the leg indexes departing from each airport index
+    private final List<Integer> arrivals = new ArrayList<>();
+    private final List<List<Integer>> departures = new ArrayList<>();
+
+    public SyntheticNetwork(int airportCount, int legCount, long seed) throws FlightException {
+        this(new FlightManager(), airportCount, legCount, seed);
+    }
+
+    public SyntheticNetwork(FlightManager manager, int airportCount, int legCount, long seed) throws FlightException {
+        this.manager = manager;
+        this.airports = new String[airportCount];
+        Random random = new Random(seed);
+        for (int i = 0; i < airportCount; i++) {
+            double latitude = Math.toDegrees(Math.asin(2 * random.nextDouble() - 1));
+            double longitude = random.nextDouble() * 360 - 180;
+            manager.addAirport("A" + i, "C" + i, latitude, longitude);
+            airports[i] = "C" + i + "-A" + i;
+        }
+        for (int i = 0; i < airportCount; i++) {
+            departures.add(new ArrayList<>());
+        }
+        for (int type = 0; type < FLEET.length; type++) {
+            manager.addPlane(FLEET[type], FLEET_SEATS[type]);
+        }
+
+        Set<Long> defined = new HashSet<>();
+        while (legs.size() < legCount) {
+            int from = hubSkewed(random, airportCount);
+            int to = random.nextInt(2) == 0 ? hubSkewed(random, airportCount) : random.nextInt(airportCount);
+            if (from == to || !defined.add((long) from * airportCount + to)) {
+                continue;
+            }
+            manager.defineRoute(airports[from], airports[to]);
+            int type = planeType(random);
+            manager.assignPlaneToLeg(airports[from], airports[to], FLEET[type]);
+            departures.get(from).add(legs.size());
+            arrivals.add(to);
+            legs.add(new String[] {airports[from], airports[to]});
+            capacities.add(FLEET_SEATS[type]);
+        }
+    }
+
+    public FlightManager getManager() {
+        return manager;
+    }
+
+    public int getLegCount() {
+        return legs.size();
+    }
+
+    // departure and arrival airport of a leg
+    public String[] getLeg(int index) {
+        return legs.get(index).clone();
+    }
+
+    // departure and arrival of a journey starting on the given leg: one connection further when the
+    // leg's arrival has departures, the leg alone otherwise
+    public String[] getJourney(int legIndex, Random random) {
+        return getJourney(getJourneyLegs(legIndex, random));
+    }
+
+    // departure and arrival of a journey given by its legs
+    public String[] getJourney(int[] journeyLegs) {
+        return new String[] {legs.get(journeyLegs[0])[0], legs.get(journeyLegs[journeyLegs.length - 1])[1]};
+    }
+
+    // the legs of the journey getJourney would draw with the same random state
+    public int[] getJourneyLegs(int legIndex, Random random) {
+        String[] leg = legs.get(legIndex);
+        List<Integer> onward = departures.get(arrivals.get(legIndex));
+        if (!onward.isEmpty()) {
+            int nextIndex = onward.get(random.nextInt(onward.size()));
+            if (!legs.get(nextIndex)[1].equals(leg[0])) {
+                return new int[] {legIndex, nextIndex};
+            }
+        }
+        return new int[] {legIndex};
+    }
+
+    public int getCapacity(int index) {
+        return capacities.get(index);
+    }
+
+    // seats that exist on every leg of a journey: the smallest plane flying it
+    public int getCapacity(int[] journeyLegs) {
+        int capacity = Integer.MAX_VALUE;
+        for (int leg : journeyLegs) {
+            capacity = Math.min(capacity, capacities.get(leg));
+        }
+        return capacity;
+    }
+
+    public String getAirport(int index) {
+        return airports[index];
+    }
+
+    public int getAirportCount() {
+        return airports.length;
+    }
+
+    // squaring a uniform number puts most of the mass on the first airports
+    private static int hubSkewed(Random random, int airportCount) {
+        double u = random.nextDouble();
+        return (int) (u * u * airportCount);
+    }
+
+    private static int planeType(Random random) {
+        int draw = random.nextInt(10);
+        for (int type = 0; type < FLEET.length; type++) {
+            draw -= FLEET_WEIGHTS[type];
+            if (draw < 0) {
+                return type;
+            }
+        }
+        return FLEET.length - 1;
+    }
+}
@@ -1,15 +1,32 @@
 package it.polito.flightbooking;
 
+import java.util.Arrays;
+import java.util.List;
+
 //represents an airport in the flight booking system.
 public class Airport {
+    static final double EARTH_RADIUS_KM = 6371.0;
+
+    private final int id;
     private String name;
     private String city;
+    private String uniqueName;
     private double latitude;
     private double longitude;
+    // legs departing from this airport, replaced on every addition so readers can scan without locking
+    private volatile FlightLeg[] departures = new FlightLeg[0];
+    // the same legs in a linear-probing table keyed by destination id, rebuilt together with departures
+    private volatile FlightLeg[] departuresByDestination = new FlightLeg[1];
 
     public Airport(String name, String city, double latitude, double longitude) {
+        this(-1, name, city, latitude, longitude);
+    }
+
+    public Airport(int id, String name, String city, double latitude, double longitude) {
+        this.id = id;
         this.name = name;
         this.city = city;
+        this.uniqueName = city + "-" + name;
         this.latitude = latitude;
         this.longitude = longitude;
     }
@@ -18,7 +35,77 @@ public class Airport {
      * returns the unique name of the airport in format "city-airportName"
      */
     public String getUniqueName() {
-        return city + "-" + name;
+        return uniqueName;
+    }
+
+    /**
+     * returns the dense id assigned by FlightManager, or -1 for an unregistered airport
+     */
+    public int getId() {
+        return id;
+    }
+
+    FlightLeg[] getDepartures() {
+        return departures;
+    }
+
+    synchronized void addDeparture(FlightLeg leg) {
+        FlightLeg[] updated = Arrays.copyOf(departures, departures.length + 1);
+        updated[departures.length] = leg;
+        publishDepartures(updated);
+    }
+
+    // appends several legs with a single copy of the array
+    synchronized void addDepartures(List<FlightLeg> legs) {
+        FlightLeg[] updated = Arrays.copyOf(departures, departures.length + legs.size());
+        for (int i = 0; i < legs.size(); i++) {
+            updated[departures.length + i] = legs.get(i);
+        }
+        publishDepartures(updated);
+    }
+
+    // the index is published first, so a leg found by scanning departures is also found by getDepartureTo
+    private void publishDepartures(FlightLeg[] updated) {
+        FlightLeg[] table = new FlightLeg[Integer.highestOneBit(updated.length * 2 + 1) << 1];
+        int mask = table.length - 1;
+        for (FlightLeg leg : updated) {
+            int i = slot(leg.getToId(), mask);
+            while (table[i] != null) {
+                i = (i + 1) & mask;
+            }
+            table[i] = leg;
+        }
+        departuresByDestination = table;
+        departures = updated;
+    }
+
+    // the leg from this airport to the given one, or null
+    FlightLeg getDepartureTo(int toId) {
+        FlightLeg[] table = departuresByDestination;
+        int mask = table.length - 1;
+        for (int i = slot(toId, mask); table[i] != null; i = (i + 1) & mask) {
+            if (table[i].getToId() == toId) {
+                return table[i];
+            }
+        }
+        return null;
+    }
+
+    private static int slot(int toId, int mask) {
+        int h = toId * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /**
+     * returns the great-circle distance in kilometres to another airport (haversine formula)
+     */
+    public double distanceTo(Airport other) {
+        double dLat = Math.toRadians(other.latitude - latitude);
+        double dLon = Math.toRadians(other.longitude - longitude);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2) +
+                Math.cos(Math.toRadians(latitude)) * Math.cos(Math.toRadians(other.latitude)) *
+                Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1.0, Math.sqrt(a)));
     }
 
     // Getters
@@ -41,10 +128,12 @@ public class Airport {
     // Setters (if needed)
     public void setName(String name) {
         this.name = name;
+        this.uniqueName = city + "-" + name;
     }
 
     public void setCity(String city) {
         this.city = city;
+        this.uniqueName = city + "-" + name;
     }
 
     public void setLatitude(double latitude) {
@@ -65,11 +154,11 @@ public class Airport {
         if (this == obj) return true;
         if (obj == null || getClass() != obj.getClass()) return false;
         Airport airport = (Airport) obj;
-        return getUniqueName().equals(airport.getUniqueName());
+        return uniqueName.equals(airport.uniqueName);
     }
 
     @Override
     public int hashCode() {
-        return getUniqueName().hashCode();
+        return uniqueName.hashCode();
     }
 }
\ No newline at end of file
@@ -0,0 +1,215 @@
+package it.polito.flightbooking;
+
+import java.util.*;
+
+// k-d tree over the airports' positions as points on the unit sphere (x, y, z).
+// straight-line (chord) distance between such points grows with the great-circle distance,
+// so nearest and radius queries can prune on one coordinate at a time, with no special case
+// for the poles or the antimeridian. inserts go to the leaves; when one lands too deep the
+// unbalanced subtree above it is rebuilt, which keeps the depth logarithmic whatever the insertion order.
+class AirportIndex {
+    // no subtree may hold more than this share of its parent's nodes after a rebuild
+    private static final double BALANCE = 0.7;
+
+    private Node root;
+    private int size;
+
+    synchronized void add(Airport airport) {
+        Node node = new Node(airport);
+        size++;
+        if (root == null) {
+            root = node;
+            return;
+        }
+        List<Node> path = new ArrayList<>();
+        Node parent = root;
+        while (parent != null) {
+            parent.count++;
+            path.add(parent);
+            parent = node.coord(parent.axis) < parent.coord(parent.axis) ? parent.left : parent.right;
+        }
+        parent = path.get(path.size() - 1);
+        node.axis = (parent.axis + 1) % 3;
+        if (node.coord(parent.axis) < parent.coord(parent.axis)) {
+            parent.left = node;
+        } else {
+            parent.right = node;
+        }
+        if (path.size() > Math.log(size) / Math.log(1 / BALANCE) + 1) {
+            rebuildScapegoat(path);
+        }
+    }
+
+    // up to k airports by increasing distance from the point; equally distant airports in alphabetic order
+    synchronized List<Airport> nearest(double latitude, double longitude, int k) {
+        if (k <= 0 || root == null) {
+            return new ArrayList<>();
+        }
+        double[] target = unitVector(latitude, longitude);
+        // the farthest of the best k found so far is on top
+        PriorityQueue<Candidate> best = new PriorityQueue<>(k + 1, Collections.reverseOrder());
+        nearest(root, target, k, best);
+        List<Candidate> sorted = new ArrayList<>(best);
+        Collections.sort(sorted);
+        List<Airport> result = new ArrayList<>(sorted.size());
+        for (Candidate candidate : sorted) {
+            result.add(candidate.airport);
+        }
+        return result;
+    }
+
+    // airports within the given great-circle distance of the point, by increasing distance
+    synchronized List<Airport> within(double latitude, double longitude, double km) {
+        List<Candidate> found = new ArrayList<>();
+        if (km >= 0 && root != null) {
+            double angle = km / Airport.EARTH_RADIUS_KM;
+            double chord = angle >= Math.PI ? 2.0 : 2 * Math.sin(angle / 2);
+            within(root, unitVector(latitude, longitude), chord * chord, found);
+        }
+        Collections.sort(found);
+        List<Airport> result = new ArrayList<>(found.size());
+        for (Candidate candidate : found) {
+            result.add(candidate.airport);
+        }
+        return result;
+    }
+
+    private void nearest(Node node, double[] target, int k, PriorityQueue<Candidate> best) {
+        if (node == null) {
+            return;
+        }
+        offer(best, new Candidate(node.airport, node.squaredDistance(target)), k);
+        double delta = target[node.axis] - node.coord(node.axis);
+        Node near = delta < 0 ? node.left : node.right;
+        Node far = delta < 0 ? node.right : node.left;
+        nearest(near, target, k, best);
+        // the other side can only help if the splitting plane is closer than the current k-th best
+        if (best.size() < k || delta * delta <= best.peek().squaredDistance) {
+            nearest(far, target, k, best);
+        }
+    }
+
+    private static void offer(PriorityQueue<Candidate> best, Candidate candidate, int k) {
+        if (best.size() < k) {
+            best.add(candidate);
+        } else if (candidate.compareTo(best.peek()) < 0) {
+            best.poll();
+            best.add(candidate);
+        }
+    }
+
+    private void within(Node node, double[] target, double limit, List<Candidate> found) {
+        if (node == null) {
+            return;
+        }
+        double squaredDistance = node.squaredDistance(target);
+        if (squaredDistance <= limit) {
+            found.add(new Candidate(node.airport, squaredDistance));
+        }
+        double delta = target[node.axis] - node.coord(node.axis);
+        if (delta < 0 || delta * delta <= limit) {
+            within(node.left, target, limit, found);
+        }
+        if (delta >= 0 || delta * delta <= limit) {
+            within(node.right, target, limit, found);
+        }
+    }
+
+    // rebuilds the lowest ancestor on the insert path whose subtrees are out of balance (scapegoat tree)
+    private void rebuildScapegoat(List<Node> path) {
+        for (int i = path.size() - 1; i >= 0; i--) {
+            Node node = path.get(i);
+            if (Math.max(count(node.left), count(node.right)) > BALANCE * node.count) {
+                List<Node> nodes = new ArrayList<>(node.count);
+                collect(node, nodes);
+                Node rebuilt = build(nodes, 0, nodes.size(), node.axis);
+                if (i == 0) {
+                    root = rebuilt;
+                } else if (path.get(i - 1).left == node) {
+                    path.get(i - 1).left = rebuilt;
+                } else {
+                    path.get(i - 1).right = rebuilt;
+                }
+                return;
+            }
+        }
+    }
+
+    private static int count(Node node) {
+        return node == null ? 0 : node.count;
+    }
+
+    private static void collect(Node node, List<Node> nodes) {
+        if (node != null) {
+            collect(node.left, nodes);
+            nodes.add(node);
+            collect(node.right, nodes);
+        }
+    }
+
+    // median split; equal coordinates go right, like inserts do
+    private static Node build(List<Node> nodes, int from, int to, int axis) {
+        if (from >= to) {
+            return null;
+        }
+        List<Node> range = nodes.subList(from, to);
+        range.sort(Comparator.comparingDouble(node -> node.coord(axis)));
+        int median = (from + to) >>> 1;
+        while (median > from && nodes.get(median - 1).coord(axis) == nodes.get(median).coord(axis)) {
+            median--;
+        }
+        Node node = nodes.get(median);
+        node.axis = axis;
+        node.left = build(nodes, from, median, (axis + 1) % 3);
+        node.right = build(nodes, median + 1, to, (axis + 1) % 3);
+        node.count = to - from;
+        return node;
+    }
+
+    private static double[] unitVector(double latitude, double longitude) {
+        double lat = Math.toRadians(latitude);
+        double lon = Math.toRadians(longitude);
+        return new double[] {Math.cos(lat) * Math.cos(lon), Math.cos(lat) * Math.sin(lon), Math.sin(lat)};
+    }
+
+    private static class Node {
+        private final Airport airport;
+        private final double[] point;
+        private int axis;
+        private int count = 1;
+        private Node left;
+        private Node right;
+
+        Node(Airport airport) {
+            this.airport = airport;
+            this.point = unitVector(airport.getLatitude(), airport.getLongitude());
+        }
+
+        double coord(int axis) {
+            return point[axis];
+        }
+
+        double squaredDistance(double[] target) {
+            double dx = point[0] - target[0];
+            double dy = point[1] - target[1];
+            double dz = point[2] - target[2];
+            return dx * dx + dy * dy + dz * dz;
+        }
+    }
+
+    private static class Candidate implements Comparable<Candidate> {
+        private final Airport airport;
+        private final double squaredDistance;
+
+        Candidate(Airport airport, double squaredDistance) {
+            this.airport = airport;
+            this.squaredDistance = squaredDistance;
+        }
+
+        @Override
+        public int compareTo(Candidate other) {
+            int byDistance = Double.compare(squaredDistance, other.squaredDistance);
+            return byDistance != 0 ? byDistance : airport.getUniqueName().compareTo(other.airport.getUniqueName());
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package it.polito.flightbooking;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+// JDK Flight Recorder event for every bookSeat call; costs nothing unless a recording enables it
+@Name("it.polito.flightbooking.BookSeat")
+@Label("Book Seat")
+@Category("Flight Booking")
+class BookSeatEvent extends Event {
+    @Label("From")
+    String from;
+
+    @Label("To")
+    String to;
+
+    @Label("Seat")
+    int seat;
+
+    @Label("Booked")
+    boolean booked;
+
+    // the FlightException reason when the booking was refused
+    @Label("Failure")
+    String failure;
+}
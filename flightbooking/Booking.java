@@ -1,28 +1,57 @@
 package it.polito.flightbooking;
 
-import java.util.Objects;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 
  // represents a booking in the flight booking system.
+ // immutable: the registry indexes bookings by code and hands the same objects out to callers
 
 public class Booking {
-    private String bookingId;
-    private String passengerId;
-    private String from;
-    private String to;
-    private int seatNumber;
+    // the booking code packed into an int (see BookingCode); formatted only when asked for
+    private final int code;
+    private final String passengerId;
+    private final String from;
+    private final String to;
+    private final int seatNumber;
+    private final List<FlightLeg> legs;
 
     public Booking(String bookingId, String passengerId, String from, String to, int seatNumber) {
-        this.bookingId = bookingId;
+        this(bookingId, passengerId, from, to, seatNumber, Collections.emptyList());
+    }
+
+    // bookingId must be a well-formed booking code: six characters over [0-9A-Z]
+    public Booking(String bookingId, String passengerId, String from, String to, int seatNumber, List<FlightLeg> legs) {
+        this(parseCode(bookingId), passengerId, from, to, seatNumber,
+                Collections.unmodifiableList(new ArrayList<>(legs)));
+    }
+
+    // legs must not change afterwards; the manager passes its unmodifiable route lists
+    Booking(int code, String passengerId, String from, String to, int seatNumber, List<FlightLeg> legs) {
+        this.code = code;
         this.passengerId = passengerId;
         this.from = from;
         this.to = to;
         this.seatNumber = seatNumber;
+        this.legs = legs;
+    }
+
+    private static int parseCode(String bookingId) {
+        int code = BookingCode.parse(bookingId);
+        if (code == BookingCode.INVALID) {
+            throw new IllegalArgumentException("Malformed booking code: " + bookingId);
+        }
+        return code;
     }
 
     // Getters
     public String getBookingId() {
-        return bookingId;
+        return BookingCode.format(code);
+    }
+
+    int getCode() {
+        return code;
     }
 
     public String getPassengerId() {
@@ -41,31 +70,24 @@ public class Booking {
         return seatNumber;
     }
 
-    // Setters
-    public void setBookingId(String bookingId) {
-        this.bookingId = bookingId;
-    }
-
-    public void setPassengerId(String passengerId) {
-        this.passengerId = passengerId;
-    }
-
-    public void setFrom(String from) {
-        this.from = from;
+    // the legs of the itinerary the seat was booked on, in travel order, in the format "from;to"
+    public List<String> getLegs() {
+        List<String> keys = new ArrayList<>(legs.size());
+        for (FlightLeg leg : legs) {
+            keys.add(leg.getKey());
+        }
+        return keys;
     }
 
-    public void setTo(String to) {
-        this.to = to;
-    }
-
-    public void setSeatNumber(int seatNumber) {
-        this.seatNumber = seatNumber;
+    // the leg objects themselves, for the manager only: they can change inventory behind its back
+    List<FlightLeg> getFlightLegs() {
+        return legs;
     }
 
     @Override
     public String toString() {
         return "Booking{" +
-                "bookingId='" + bookingId + '\'' +
+                "bookingId='" + getBookingId() + '\'' +
                 ", passengerId='" + passengerId + '\'' +
                 ", from='" + from + '\'' +
                 ", to='" + to + '\'' +
@@ -78,11 +100,11 @@ public class Booking {
         if (this == obj) return true;
         if (obj == null || getClass() != obj.getClass()) return false;
         Booking booking = (Booking) obj;
-        return bookingId.equals(booking.bookingId);
+        return code == booking.code;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(bookingId);
+        return Integer.hashCode(code);
     }
 }
\ No newline at end of file
@@ -0,0 +1,46 @@
+package it.polito.flightbooking;
+
+// packs 6-character booking codes over [0-9A-Z] into an int and back.
+// the code is read as a base-36 number with digits before letters, so 36^6 values fit in 32 unsigned bits
+// and the unsigned order of the packed ints is the alphabetical order of the strings.
+final class BookingCode {
+    static final String ALPHABET = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ";
+    static final int LENGTH = 6;
+    // number of distinct codes: 36^6
+    static final long SPACE = 2176782336L;
+    // never produced by pack, since SPACE < 2^32
+    static final int INVALID = -1;
+
+    private BookingCode() {
+    }
+
+    static String format(int code) {
+        long value = Integer.toUnsignedLong(code);
+        char[] chars = new char[LENGTH];
+        for (int i = LENGTH - 1; i >= 0; i--) {
+            chars[i] = ALPHABET.charAt((int) (value % ALPHABET.length()));
+            value /= ALPHABET.length();
+        }
+        return new String(chars);
+    }
+
+    // the packed code, or INVALID if the string is not a well-formed booking code
+    static int parse(String code) {
+        if (code == null || code.length() != LENGTH) {
+            return INVALID;
+        }
+        long value = 0;
+        for (int i = 0; i < LENGTH; i++) {
+            int digit = ALPHABET.indexOf(code.charAt(i));
+            if (digit < 0) {
+                return INVALID;
+            }
+            value = value * ALPHABET.length() + digit;
+        }
+        return (int) value;
+    }
+
+    static int compare(int a, int b) {
+        return Integer.compareUnsigned(a, b);
+    }
+}
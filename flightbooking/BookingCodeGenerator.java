@@ -0,0 +1,40 @@
+package it.polito.flightbooking;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+// issues packed booking codes (see BookingCode) that are unique among the live bookings.
+// each thread draws from its own random source, so concurrent bookings do not contend on a shared seed.
+class BookingCodeGenerator {
+    private final IntHashMap<Boolean> live = new IntHashMap<>();
+
+    // reserves and returns a code not held by any live booking
+    int next() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (true) {
+            int code = (int) random.nextLong(BookingCode.SPACE);
+            if (live.putIfAbsent(code, Boolean.TRUE) == null) {
+                return code;
+            }
+        }
+    }
+
+    // marks a code restored from persistent state as taken
+    void reserve(int code) {
+        live.putIfAbsent(code, Boolean.TRUE);
+    }
+
+    // reserves count distinct codes for a group booking. codes are not generated ahead of time:
+    // each one still needs its own reservation in the live set, and that is where the cost is
+    int[] next(int count) {
+        int[] codes = new int[count];
+        for (int i = 0; i < count; i++) {
+            codes[i] = next();
+        }
+        return codes;
+    }
+
+    // makes the code of a cancelled (or never used) booking available again
+    void release(int code) {
+        live.remove(code);
+    }
+}
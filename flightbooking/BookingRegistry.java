@@ -0,0 +1,51 @@
+package it.polito.flightbooking;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+// indexed store of the bookings made through FlightManager, by packed booking code and by passenger.
+// the per-leg index is kept by each FlightLeg.
+class BookingRegistry {
+    private final IntHashMap<Booking> byCode = new IntHashMap<>();
+    private final Map<String, Set<Booking>> byPassenger = new ConcurrentHashMap<>();
+
+    // the passenger's set is changed inside compute, so it cannot be dropped as empty while a booking is added
+    void add(Booking booking) {
+        byCode.putIfAbsent(booking.getCode(), booking);
+        byPassenger.compute(booking.getPassengerId(), (passengerId, passengerBookings) -> {
+            Set<Booking> result = passengerBookings == null ? ConcurrentHashMap.newKeySet() : passengerBookings;
+            result.add(booking);
+            return result;
+        });
+    }
+
+    Booking get(int code) {
+        return byCode.get(code);
+    }
+
+    // removes the booking; false if it was already removed by someone else
+    boolean remove(Booking booking) {
+        if (!byCode.remove(booking.getCode(), booking)) {
+            return false;
+        }
+        // a passenger without bookings left is forgotten, so the index does not grow with every passenger ever seen
+        byPassenger.computeIfPresent(booking.getPassengerId(), (passengerId, passengerBookings) -> {
+            passengerBookings.remove(booking);
+            return passengerBookings.isEmpty() ? null : passengerBookings;
+        });
+        return true;
+    }
+
+    boolean contains(int code) {
+        return byCode.containsKey(code);
+    }
+
+    void forEach(Consumer<Booking> action) {
+        byCode.forEach(action);
+    }
+
+    Collection<Booking> forPassenger(String passengerId) {
+        return byPassenger.getOrDefault(passengerId, Collections.emptySet());
+    }
+}
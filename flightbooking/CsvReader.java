@@ -0,0 +1,85 @@
+package it.polito.flightbooking;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+// streams a comma-separated file in chunks of lines and parses every chunk in parallel.
+// fields are trimmed and cannot contain commas; blank lines and lines starting with '#' are skipped.
+// rows are returned in file order.
+final class CsvReader {
+    private static final int CHUNK_LINES = 1 << 13;
+
+    // builds one row from its fields; throws IllegalArgumentException for a malformed row
+    interface RowParser<T> {
+        T parse(String[] fields);
+    }
+
+    private CsvReader() {
+    }
+
+    static <T> List<T> read(Path file, RowParser<T> parser) throws FlightException {
+        List<T> rows = new ArrayList<>();
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            List<String> chunk = new ArrayList<>(CHUNK_LINES);
+            int firstLine = 1;
+            String line;
+            while ((line = in.readLine()) != null) {
+                chunk.add(line);
+                if (chunk.size() == CHUNK_LINES) {
+                    parseChunk(file, chunk, firstLine, parser, rows);
+                    firstLine += chunk.size();
+                    chunk.clear();
+                }
+            }
+            parseChunk(file, chunk, firstLine, parser, rows);
+        } catch (IOException e) {
+            throw new FlightException("Cannot read " + file, e);
+        }
+        return rows;
+    }
+
+    // the first malformed line of the chunk is reported, whichever thread parsed it
+    private static <T> void parseChunk(Path file, List<String> lines, int firstLine, RowParser<T> parser,
+            List<T> rows) throws FlightException {
+        Object[] parsed = new Object[lines.size()];
+        String[] errors = new String[lines.size()];
+        IntStream.range(0, lines.size()).parallel().forEach(i -> {
+            String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                return;
+            }
+            String[] fields = line.split(",", -1);
+            for (int f = 0; f < fields.length; f++) {
+                fields[f] = fields[f].trim();
+            }
+            try {
+                parsed[i] = parser.parse(fields);
+            } catch (IllegalArgumentException e) {
+                errors[i] = e.getMessage();
+            }
+        });
+        for (int i = 0; i < parsed.length; i++) {
+            if (errors[i] != null) {
+                throw new FlightException(file + ":" + (firstLine + i) + ": " + errors[i]);
+            }
+            if (parsed[i] != null) {
+                @SuppressWarnings("unchecked")
+                T row = (T) parsed[i];
+                rows.add(row);
+            }
+        }
+    }
+
+    // checks the number of fields of a row
+    static void expectFields(String[] fields, int count) {
+        if (fields.length != count) {
+            throw new IllegalArgumentException("expected " + count + " fields but found " + fields.length);
+        }
+    }
+}
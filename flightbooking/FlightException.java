@@ -2,7 +2,45 @@ package it.polito.flightbooking;
 
 public class FlightException extends Exception {
 
+    // broad category of the failure, for callers and metrics that need more than the message
+    public enum Reason {
+        // an airport, plane, leg or booking that does not exist
+        NOT_FOUND,
+        // an airport or plane defined twice, or a leg that already has a plane
+        ALREADY_EXISTS,
+        // a malformed request, such as a repeated connection or a non-positive capacity
+        INVALID_ARGUMENT,
+        // no sequence of legs connects the two airports
+        NO_ROUTE,
+        // a leg of the route has no plane assigned
+        NO_PLANE,
+        // the requested seats are taken, or no seat is free
+        SEAT_UNAVAILABLE,
+        // the durable state or the seat store could not be read or written
+        STORAGE
+    }
+
+    private final Reason reason;
+
     public FlightException(String message) {
+        this(Reason.INVALID_ARGUMENT, message);
+    }
+
+    public FlightException(String message, Throwable cause) {
+        this(Reason.STORAGE, message, cause);
+    }
+
+    public FlightException(Reason reason, String message) {
         super(message);
+        this.reason = reason;
+    }
+
+    public FlightException(Reason reason, String message, Throwable cause) {
+        super(message, cause);
+        this.reason = reason;
+    }
+
+    public Reason getReason() {
+        return reason;
     }
 }
@@ -1,69 +1,164 @@
 package it.polito.flightbooking;
 
 import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
 
 
  //represents a flight leg between two airports.
+ //public methods lock the leg themselves; package-private helpers expect the caller to hold the lock.
+ //reads never lock: they use the last published snapshot, which is refreshed when the outermost lock is released
 public class FlightLeg {
+    private final int id;
+    private final int fromId;
+    private final int toId;
+    private final ReentrantLock lock = new ReentrantLock();
     private String from;
     private String to;
-    private Plane assignedPlane;
-    private Set<Integer> bookedSeats;
-    private List<String> bookingCodes;
+    private String key;
+    private volatile Plane assignedPlane;
+    // seat bitmap and counter, on the heap or in a mapped store
+    private SeatInventory inventory;
+    // packed booking codes in alphabetical order; immutable, so snapshots share it instead of copying
+    private SortedIntSet bookingCodes = SortedIntSet.EMPTY;
+    // what readers see; replaced, never modified
+    private volatile SeatSnapshot snapshot = SeatSnapshot.EMPTY;
+    // true while the live state has changes not yet in the snapshot
+    private boolean changed;
 
-    public FlightLeg(String from, String to) {
-        this.from = from;
-        this.to = to;
-        this.bookedSeats = new HashSet<>();
-        this.bookingCodes = new ArrayList<>();
+    public FlightLeg(int id, Airport from, Airport to) {
+        this.id = id;
+        this.fromId = from.getId();
+        this.toId = to.getId();
+        this.from = from.getUniqueName();
+        this.to = to.getUniqueName();
+        this.key = this.from + ";" + this.to;
+        this.inventory = HeapSeatInventory.EMPTY;
     }
 
 
      // returns the key representation of this leg in format "from;to"
 
     public String getKey() {
-        return from + ";" + to;
+        return key;
+    }
+
+
+    // books a seat for the given packed code (see BookingCode)
+    void bookSeat(int seatNumber, int bookingCode) {
+        lock();
+        try {
+            int bit = seatNumber - 1;
+            long mask = 1L << bit;
+            long word = inventory.getWord(bit >>> 6);
+            if ((word & mask) == 0) {
+                inventory.setWord(bit >>> 6, word | mask);
+                inventory.setBookedCount(inventory.getBookedCount() + 1);
+            }
+            bookingCodes = bookingCodes.with(bookingCode);
+            changed = true;
+        } finally {
+            unlock();
+        }
     }
 
 
-    public void bookSeat(int seatNumber, String bookingCode) {
-        bookedSeats.add(seatNumber);
-        bookingCodes.add(bookingCode);
+    // releases a seat booked with the given packed code
+    void cancelSeat(int seatNumber, int bookingCode) {
+        lock();
+        try {
+            int bit = seatNumber - 1;
+            long mask = 1L << bit;
+            long word = inventory.getWord(bit >>> 6);
+            if ((word & mask) != 0) {
+                inventory.setWord(bit >>> 6, word & ~mask);
+                inventory.setBookedCount(inventory.getBookedCount() - 1);
+            }
+            bookingCodes = bookingCodes.without(bookingCode);
+            changed = true;
+        } finally {
+            unlock();
+        }
     }
 
 
     //  checking if a seat is available on this leg
 
     public boolean isSeatAvailable(int seatNumber) {
-        if (assignedPlane == null) {
-            return false;
-        }
-        return seatNumber >= 1 && seatNumber <= assignedPlane.getCapacity() &&
-                !bookedSeats.contains(seatNumber);
+        return snapshot.isSeatAvailable(seatNumber);
     }
 
 
     public List<Integer> getAvailableSeats() {
-        List<Integer> availableSeats = new ArrayList<>();
-        if (assignedPlane != null) {
-            for (int seat = 1; seat <= assignedPlane.getCapacity(); seat++) {
-                if (!bookedSeats.contains(seat)) {
-                    availableSeats.add(seat);
-                }
-            }
-        }
-        return availableSeats;
+        return snapshot.getAvailableSeats();
     }
 
 
     public double getOccupationRate() {
-        if (assignedPlane == null) {
+        SeatSnapshot seats = snapshot;
+        if (seats.getCapacity() == 0) {
             return 0.0;
         }
-        return (double) bookedSeats.size() / assignedPlane.getCapacity();
+        return (double) seats.getBookedCount() / seats.getCapacity();
+    }
+
+    public int getBookedCount() {
+        return snapshot.getBookedCount();
+    }
+
+    // number of distinct bookings travelling on this leg
+    public int getBookingCount() {
+        return snapshot.getBookingCount();
+    }
+
+    // number of distinct bookings, counting changes not yet published; the caller holds the lock
+    int getCurrentBookingCount() {
+        return bookingCodes.size();
+    }
+
+    void lock() {
+        lock.lock();
+    }
+
+    // releasing the outermost hold publishes the changes made under it as one new snapshot
+    void unlock() {
+        if (lock.getHoldCount() == 1) {
+            publish();
+        }
+        lock.unlock();
+    }
+
+    // publishes the pending changes now and returns the current snapshot; the caller holds the lock
+    SeatSnapshot publish() {
+        if (changed) {
+            snapshot = SeatSnapshot.of(assignedPlane == null ? 0 : assignedPlane.getCapacity(), inventory, bookingCodes);
+            changed = false;
+        }
+        return snapshot;
+    }
+
+    // the last published seats of each leg, in the same order; while the caller holds
+    // the legs' locks, these are their current seats
+    static SeatSnapshot[] snapshots(List<FlightLeg> legs) {
+        SeatSnapshot[] seats = new SeatSnapshot[legs.size()];
+        for (int i = 0; i < seats.length; i++) {
+            seats[i] = legs.get(i).snapshot;
+        }
+        return seats;
     }
 
     
+    public int getId() {
+        return id;
+    }
+
+    public int getFromId() {
+        return fromId;
+    }
+
+    public int getToId() {
+        return toId;
+    }
+
     public String getFrom() {
         return from;
     }
@@ -77,24 +172,74 @@ public class FlightLeg {
     }
 
     public Set<Integer> getBookedSeats() {
-        return new HashSet<>(bookedSeats);
+        return snapshot.getBookedSeats();
     }
 
+    // booking codes in alphabetical order
     public List<String> getBookingCodes() {
-        return new ArrayList<>(bookingCodes);
+        return getBookingCodes(null, Integer.MAX_VALUE);
+    }
+
+    // the packed booking codes of the last snapshot, in alphabetical order
+    int[] getPackedBookingCodes() {
+        return snapshot.getBookingCodes(true, 0, Integer.MAX_VALUE);
+    }
+
+    // at most limit booking codes following afterCode (from the first one if afterCode is null), in alphabetical order.
+    // a cursor that is not a well-formed booking code yields an empty page
+    public List<String> getBookingCodes(String afterCode, int limit) {
+        int after = afterCode == null ? BookingCode.INVALID : BookingCode.parse(afterCode);
+        if (afterCode != null && after == BookingCode.INVALID) {
+            return new ArrayList<>();
+        }
+        int[] codes = snapshot.getBookingCodes(afterCode == null, after, limit);
+        List<String> page = new ArrayList<>(codes.length);
+        for (int code : codes) {
+            page.add(BookingCode.format(code));
+        }
+        return page;
     }
 
     
     public void setFrom(String from) {
         this.from = from;
+        this.key = from + ";" + to;
     }
 
     public void setTo(String to) {
         this.to = to;
+        this.key = from + ";" + to;
     }
 
     public void setAssignedPlane(Plane assignedPlane) {
-        this.assignedPlane = assignedPlane;
+        setAssignedPlane(assignedPlane,
+                assignedPlane == null ? HeapSeatInventory.EMPTY : new HeapSeatInventory(assignedPlane.getCapacity()));
+    }
+
+    // assigns the plane with an empty inventory supplied by the caller
+    void setAssignedPlane(Plane assignedPlane, SeatInventory inventory) {
+        lock();
+        try {
+            this.inventory = inventory;
+            this.assignedPlane = assignedPlane;
+            changed = true;
+        } finally {
+            unlock();
+        }
+    }
+
+    // copies the current bookings into another inventory and switches to it; the snapshot stays valid
+    void moveInventory(SeatInventory target) {
+        lock.lock();
+        try {
+            for (int w = 0; w < inventory.getWordCount(); w++) {
+                target.setWord(w, inventory.getWord(w));
+            }
+            target.setBookedCount(inventory.getBookedCount());
+            this.inventory = target;
+        } finally {
+            lock.unlock();
+        }
     }
 
     @Override
@@ -107,11 +252,11 @@ public class FlightLeg {
         if (this == obj) return true;
         if (obj == null || getClass() != obj.getClass()) return false;
         FlightLeg flightLeg = (FlightLeg) obj;
-        return from.equals(flightLeg.from) && to.equals(flightLeg.to);
+        return key.equals(flightLeg.key);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(from, to);
+        return key.hashCode();
     }
 }
\ No newline at end of file
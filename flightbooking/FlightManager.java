@@ -1,19 +1,133 @@
 package it.polito.flightbooking;
 
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * The FlightManager class is the main class for the flight booking system.
  * It provides functionality to manage airports, define routes, add planes,
  * assign planes to flight legs, search for available seats, book seats,
  * and retrieve various statistics about bookings and flight occupancy.
+ * <p>
+ * The manager is safe for concurrent use. Multi-leg operations lock the legs
+ * they touch in ascending leg id order, so bookings are all-or-nothing and
+ * bookings on disjoint legs proceed in parallel.
+ * <p>
+ * Airports, legs and planes are interned to dense int ids; the string-based
+ * methods only translate names at the edge and work on id-indexed tables inside.
+ * <p>
+ * A manager created with {@link #FlightManager(Path)} is durable: every mutation is
+ * appended to a write-ahead log (fsyncs of concurrent callers are batched) and the
+ * state is periodically compacted into a snapshot by a background thread. On restart
+ * the latest snapshot is loaded and only the log written after it is replayed.
+ * Once the log cannot be written, the manager stops accepting changes, so that
+ * its state never runs ahead of what a restart would recover.
  */
-public class FlightManager {
-    private Map<String, Airport> airports = new HashMap<>();
-    private Map<String, Plane> planes = new HashMap<>();
-    private Map<String, FlightLeg> legs = new HashMap<>();
+public class FlightManager implements AutoCloseable {
+    private static final Logger LOGGER = Logger.getLogger(FlightManager.class.getName());
+    private static final String SNAPSHOT_FILE = "snapshot.bin";
+    private static final String LOG_PREFIX = "wal-";
+    private static final String LOG_SUFFIX = ".log";
+    private static final int SNAPSHOT_MAGIC = 0x464C4253;
+    // the magic number and the epoch
+    private static final int SNAPSHOT_HEADER_LENGTH = 12;
+    private static final long DEFAULT_CHECKPOINT_INTERVAL = 1_000_000;
+    // booking codes read from a leg at a time while a snapshot is streamed
+    private static final int SNAPSHOT_PAGE = 1024;
+
+    private IdTable<Airport> airports = new IdTable<>();
+    // spatial index over the airports' coordinates
+    private AirportIndex airportIndex = new AirportIndex();
+    private IdTable<Plane> planes = new IdTable<>();
+    // legs interned by their "from;to" key; each airport also lists its departures for adjacency
+    private IdTable<FlightLeg> legs = new IdTable<>();
+    // which airports can reach which, so unreachable pairs are rejected without a search
+    private ReachabilityIndex reachability = new ReachabilityIndex();
     private List<String> routes = new ArrayList<>();
-    private Random random = new Random();
+    // memoized route resolution: from -> to -> legs, replaced whenever a new leg is defined
+    private volatile Map<String, Map<String, List<FlightLeg>>> routeCache = new ConcurrentHashMap<>();
+    private BookingRegistry bookings = new BookingRegistry();
+    private LegLeaderboard leaderboard = new LegLeaderboard();
+    private BookingCodeGenerator codeGenerator = new BookingCodeGenerator();
+    private volatile RoutePreference routePreference = RoutePreference.FEWEST_LEGS;
+    // durable mode only: mutations share the read lock, a checkpoint takes the write lock
+    private final Path dataDirectory;
+    private final long checkpointInterval;
+    private final ReentrantReadWriteLock stateLock = new ReentrantReadWriteLock();
+    private final Object checkpointLock = new Object();
+    // durable mode only: writes the snapshots off the callers' threads
+    private final ExecutorService checkpointer;
+    private final AtomicBoolean checkpointPending = new AtomicBoolean();
+    // number of records in the current log that triggers the next checkpoint
+    private volatile long checkpointDue;
+    private volatile WriteAheadLog log;
+    private long epoch;
+    // while a checkpoint streams its snapshot: the bookings cancelled since its view was taken, by code.
+    // their codes are released only when the snapshot is written, so every code in the view still
+    // resolves to the booking it stood for
+    private volatile IntHashMap<Booking> checkpointRetired;
+    // optional off-heap home for the seat inventories, null while they stay on the heap
+    private MappedSeatStore seatStore;
+    // seats of every leg as of the last completed mutation; readers take it without locking
+    private final AtomicReference<SeatView> seatView = new AtomicReference<>(SeatView.EMPTY);
+    private final MetricsRecorder metrics = new MetricsRecorder();
+
+    /**
+     * Creates an in-memory manager; its state is lost when the program ends.
+     */
+    public FlightManager() {
+        this.dataDirectory = null;
+        this.checkpointInterval = 0;
+        this.checkpointer = null;
+    }
+
+    /**
+     * Creates a durable manager that keeps its state in the given directory,
+     * recovering whatever state a previous manager left there.
+     * 
+     * @param directory the directory holding the snapshot and the write-ahead log
+     * @throws FlightException if the directory cannot be used or its content cannot be read back
+     */
+    public FlightManager(Path directory) throws FlightException {
+        this(directory, DEFAULT_CHECKPOINT_INTERVAL);
+    }
+
+    /**
+     * Creates a durable manager that writes a new snapshot every given number of logged mutations.
+     * 
+     * @param directory the directory holding the snapshot and the write-ahead log
+     * @param checkpointInterval the number of log records after which a snapshot is written
+     * @throws FlightException if the directory cannot be used or its content cannot be read back
+     */
+    public FlightManager(Path directory, long checkpointInterval) throws FlightException {
+        this.dataDirectory = directory;
+        this.checkpointInterval = checkpointInterval;
+        this.checkpointDue = checkpointInterval;
+        this.checkpointer = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "flight-checkpoint");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            Files.createDirectories(directory);
+            recover();
+        } catch (IOException e) {
+            throw new FlightException("Cannot recover state from " + directory, e);
+        }
+    }
 
     /**
      * Adds an airport to the system.
@@ -24,13 +138,22 @@ public class FlightManager {
      * @param longitude the longitude coordinate of the airport in decimal degrees
      * @throws FlightException if an airport with the same unique name (city-airportName) already exists
      */
-    public void addAirport(String airportName, String city, double latitude, double longitude) throws FlightException {
-        // To be implemented
+    public synchronized void addAirport(String airportName, String city, double latitude, double longitude) throws FlightException {
         String uniqueName = city + "-" + airportName;
-        if (airports.containsKey(uniqueName)) {
-            throw new FlightException("Airport " + uniqueName + " already exists");
+        WriteAheadLog wal = beginMutation();
+        long sequence;
+        try {
+            byte[] record = wal == null ? null : LogRecord.airport(airportName, city, latitude, longitude);
+            int id = airports.add(uniqueName, airportId -> new Airport(airportId, airportName, city, latitude, longitude));
+            if (id < 0) {
+                throw new FlightException(FlightException.Reason.ALREADY_EXISTS, "Airport " + uniqueName + " already exists");
+            }
+            airportIndex.add(airports.get(id));
+            sequence = append(wal, record);
+        } finally {
+            endMutation();
         }
-        airports.put(uniqueName, new Airport(airportName, city, latitude, longitude));
+        awaitDurable(wal, sequence);
     }
 
     /**
@@ -39,7 +162,33 @@ public class FlightManager {
      * @return a collection containing the unique names of all defined airports (in the format "city-airportName")
      */
     public Collection<String> listAirports() {
-        return new ArrayList<>(airports.keySet());
+        return new ArrayList<>(airports.names());
+    }
+
+    /**
+     * Returns the airports closest to a point.
+     * 
+     * @param latitude the latitude of the point in decimal degrees
+     * @param longitude the longitude of the point in decimal degrees
+     * @param k the maximum number of airports to return
+     * @return up to k unique names of airports by increasing great-circle distance from the point;
+     *         airports at the same distance are in alphabetic order
+     */
+    public List<String> nearestAirports(double latitude, double longitude, int k) {
+        return uniqueNames(airportIndex.nearest(latitude, longitude, k));
+    }
+
+    /**
+     * Returns the airports within a given great-circle distance of a point.
+     * 
+     * @param latitude the latitude of the point in decimal degrees
+     * @param longitude the longitude of the point in decimal degrees
+     * @param km the search radius in kilometres
+     * @return the unique names of the airports at most km kilometres away, by increasing distance;
+     *         airports at the same distance are in alphabetic order
+     */
+    public List<String> airportsWithin(double latitude, double longitude, double km) {
+        return uniqueNames(airportIndex.within(latitude, longitude, km));
     }
 
     /**
@@ -51,7 +200,7 @@ public class FlightManager {
      * @throws FlightException if there are fewer than 2 connections, if any airport is undefined,
      *                         or if the same connection is repeated multiple times
      */
-    public int defineRoute(String... connections) throws FlightException {
+    public synchronized int defineRoute(String... connections) throws FlightException {
         if (connections.length < 2) {
             throw new FlightException("Route must have at least 2 connections");
         }
@@ -67,27 +216,222 @@ public class FlightManager {
 
         // Check if all airports exist
         for (String connection : connections) {
-            if (!airports.containsKey(connection)) {
-                throw new FlightException("Airport " + connection + " not found");
+            if (!airports.contains(connection)) {
+                throw new FlightException(FlightException.Reason.NOT_FOUND, "Airport " + connection + " not found");
             }
         }
 
-        
         int numLegs = connections.length - 1;
-        for (int i = 0; i < numLegs; i++) {
-            String from = connections[i];
-            String to = connections[i + 1];
-            String legKey = from + ";" + to;
+        boolean newLegs = false;
+        WriteAheadLog wal = beginMutation();
+        long sequence = 0;
+        try {
+            byte[] record = wal == null ? null : LogRecord.route(connections);
+            for (int i = 0; i < numLegs; i++) {
+                Airport from = airports.get(connections[i]);
+                Airport to = airports.get(connections[i + 1]);
 
-            if (!legs.containsKey(legKey)) {
-                legs.put(legKey, new FlightLeg(from, to));
+                if (from.getDepartureTo(to.getId()) == null) {
+                    // reachability first: a search that sees the leg must not be rejected up front
+                    reachability.addLeg(from.getId(), to.getId());
+                    int legId = legs.add(connections[i] + ";" + connections[i + 1], id -> new FlightLeg(id, from, to));
+                    from.addDeparture(legs.get(legId));
+                    newLegs = true;
+                }
             }
+            if (newLegs) {
+                // published after all the legs are visible, so no search can cache a stale path in it
+                routeCache = new ConcurrentHashMap<>();
+                sequence = append(wal, record);
+            }
+        } finally {
+            endMutation();
         }
+        awaitDurable(wal, sequence);
 
         return numLegs;
 
     }
 
+    /**
+     * Loads a whole network from comma-separated files, as if every row were passed to
+     * {@link #addAirport}, {@link #defineRoute}, {@link #addPlane} and {@link #assignPlaneToLeg}, but
+     * parsing the files in parallel and validating and indexing everything in a single pass.
+     * The import is all-or-nothing: if any row is rejected nothing is added.
+     * Blank lines and lines starting with '#' are ignored; fields cannot contain commas.
+     * 
+     * @param airportsFile rows "airportName,city,latitude,longitude", or null
+     * @param routesFile rows listing the unique names of the airports of a route, "from,stop,...,to", or null
+     * @param fleetFile rows "planeId,capacity", or null
+     * @param assignmentsFile rows "from,to,planeId", or null
+     * @throws FlightException if a file cannot be read or has a malformed row, or if a row breaks a rule
+     *                         of the corresponding single-item method
+     */
+    public synchronized void importNetwork(Path airportsFile, Path routesFile, Path fleetFile, Path assignmentsFile)
+            throws FlightException {
+        List<Airport> newAirports = airportsFile == null ? Collections.emptyList() : CsvReader.read(airportsFile, fields -> {
+            CsvReader.expectFields(fields, 4);
+            return new Airport(fields[0], fields[1], Double.parseDouble(fields[2]), Double.parseDouble(fields[3]));
+        });
+        List<String[]> newRoutes = routesFile == null ? Collections.emptyList() : CsvReader.read(routesFile, fields -> {
+            if (fields.length < 2) {
+                throw new IllegalArgumentException("Route must have at least 2 connections");
+            }
+            return fields;
+        });
+        List<Plane> newPlanes = fleetFile == null ? Collections.emptyList() : CsvReader.read(fleetFile, fields -> {
+            CsvReader.expectFields(fields, 2);
+            int capacity = Integer.parseInt(fields[1]);
+            if (capacity <= 0) {
+                throw new IllegalArgumentException("Capacity must be positive");
+            }
+            return new Plane(fields[0], capacity);
+        });
+        List<String[]> newAssignments = assignmentsFile == null ? Collections.emptyList() : CsvReader.read(assignmentsFile, fields -> {
+            CsvReader.expectFields(fields, 3);
+            return fields;
+        });
+
+        // validation against the current state plus the rows before, nothing is changed yet
+        Set<String> airportNames = new HashSet<>();
+        for (Airport airport : newAirports) {
+            if (airports.contains(airport.getUniqueName()) || !airportNames.add(airport.getUniqueName())) {
+                throw new FlightException(FlightException.Reason.ALREADY_EXISTS, "Airport " + airport.getUniqueName() + " already exists");
+            }
+        }
+        Map<String, String[]> newLegs = new LinkedHashMap<>();
+        for (String[] connections : newRoutes) {
+            Set<String> connectionSet = new HashSet<>();
+            for (String connection : connections) {
+                if (!connectionSet.add(connection)) {
+                    throw new FlightException("Duplicate connection: " + connection);
+                }
+                if (!airports.contains(connection) && !airportNames.contains(connection)) {
+                    throw new FlightException(FlightException.Reason.NOT_FOUND, "Airport " + connection + " not found");
+                }
+            }
+            for (int i = 0; i + 1 < connections.length; i++) {
+                String key = connections[i] + ";" + connections[i + 1];
+                if (!legs.contains(key)) {
+                    newLegs.putIfAbsent(key, new String[] {connections[i], connections[i + 1]});
+                }
+            }
+        }
+        Map<String, Plane> planeIds = new HashMap<>();
+        for (Plane plane : newPlanes) {
+            if (planes.contains(plane.getId()) || planeIds.putIfAbsent(plane.getId(), plane) != null) {
+                throw new FlightException(FlightException.Reason.ALREADY_EXISTS, "Plane " + plane.getId() + " already exists");
+            }
+        }
+        Set<String> assignedLegs = new HashSet<>();
+        for (String[] assignment : newAssignments) {
+            String key = assignment[0] + ";" + assignment[1];
+            FlightLeg leg = legs.get(key);
+            if (leg == null && !newLegs.containsKey(key)) {
+                throw new FlightException(FlightException.Reason.NOT_FOUND, "Leg " + key + " does not exist");
+            }
+            Plane plane = planes.contains(assignment[2]) ? planes.get(assignment[2]) : planeIds.get(assignment[2]);
+            if (plane == null) {
+                throw new FlightException(FlightException.Reason.NOT_FOUND, "Plane " + assignment[2] + " not found");
+            }
+            if ((leg != null && leg.getAssignedPlane() != null) || !assignedLegs.add(key)) {
+                throw new FlightException(FlightException.Reason.ALREADY_EXISTS, "Leg " + key + " already has an assigned plane");
+            }
+            if (seatStore != null && plane.getCapacity() > seatStore.getMaxSeats()) {
+                throw new FlightException("The seat store holds at most " + seatStore.getMaxSeats() + " seats per leg");
+            }
+        }
+
+        // everything is valid: build the indexes and log the changes as one batch with a single sync
+        WriteAheadLog wal = beginMutation();
+        long sequence = 0;
+        try {
+            List<byte[]> records = new ArrayList<>();
+            if (wal != null) {
+                for (Airport airport : newAirports) {
+                    records.add(LogRecord.airport(airport.getName(), airport.getCity(), airport.getLatitude(),
+                            airport.getLongitude()));
+                }
+                for (String[] connections : newLegs.values()) {
+                    records.add(LogRecord.route(connections));
+                }
+                for (Plane plane : newPlanes) {
+                    records.add(LogRecord.plane(plane.getId(), plane.getCapacity()));
+                }
+                for (String[] assignment : newAssignments) {
+                    records.add(LogRecord.assignment(assignment[0], assignment[1], assignment[2]));
+                }
+            }
+            // the inventories are prepared before anything is registered, so a seat store that cannot grow
+            // fails the import whole. the manager's lock keeps other legs out, so the new legs get the ids
+            // following the current ones, in order
+            Map<String, Integer> newLegIds = new HashMap<>();
+            for (String key : newLegs.keySet()) {
+                newLegIds.put(key, legs.size() + newLegIds.size());
+            }
+            List<SeatInventory> inventories = new ArrayList<>(newAssignments.size());
+            for (String[] assignment : newAssignments) {
+                String key = assignment[0] + ";" + assignment[1];
+                FlightLeg leg = legs.get(key);
+                int legId = leg != null ? leg.getId() : newLegIds.get(key);
+                Plane plane = planes.contains(assignment[2]) ? planes.get(assignment[2]) : planeIds.get(assignment[2]);
+                inventories.add(newInventory(legId, plane.getCapacity()));
+            }
+            for (Airport airport : newAirports) {
+                int id = airports.add(airport.getUniqueName(), airportId -> new Airport(airportId, airport.getName(),
+                        airport.getCity(), airport.getLatitude(), airport.getLongitude()));
+                airportIndex.add(airports.get(id));
+            }
+            Map<Airport, List<FlightLeg>> departures = new HashMap<>();
+            for (Map.Entry<String, String[]> entry : newLegs.entrySet()) {
+                Airport from = airports.get(entry.getValue()[0]);
+                Airport to = airports.get(entry.getValue()[1]);
+                reachability.addLeg(from.getId(), to.getId());
+                FlightLeg leg = legs.get(legs.add(entry.getKey(), id -> new FlightLeg(id, from, to)));
+                departures.computeIfAbsent(from, airport -> new ArrayList<>()).add(leg);
+            }
+            for (Map.Entry<Airport, List<FlightLeg>> entry : departures.entrySet()) {
+                entry.getKey().addDepartures(entry.getValue());
+            }
+            if (!newLegs.isEmpty()) {
+                routeCache = new ConcurrentHashMap<>();
+            }
+            for (Plane plane : newPlanes) {
+                planes.add(plane.getId(), index -> new Plane(index, plane.getId(), plane.getCapacity()));
+            }
+            List<FlightLeg> planeLegs = new ArrayList<>(newAssignments.size());
+            for (String[] assignment : newAssignments) {
+                planeLegs.add(legs.get(assignment[0] + ";" + assignment[1]));
+            }
+            FlightLeg[] locked = lockLegs(planeLegs);
+            try {
+                for (int i = 0; i < planeLegs.size(); i++) {
+                    String[] assignment = newAssignments.get(i);
+                    FlightLeg leg = planeLegs.get(i);
+                    leg.setAssignedPlane(planes.get(assignment[2]), inventories.get(i));
+                }
+            } finally {
+                unlockLegs(locked);
+            }
+            for (byte[] record : records) {
+                sequence = append(wal, record);
+            }
+        } finally {
+            endMutation();
+        }
+        awaitDurable(wal, sequence);
+    }
+
+    /**
+     * Sets the criterion used to choose an itinerary when several routings connect two airports.
+     * 
+     * @param preference the route preference, {@link RoutePreference#FEWEST_LEGS} by default
+     */
+    public void setRoutePreference(RoutePreference preference) {
+        this.routePreference = preference;
+        routeCache = new ConcurrentHashMap<>();
+    }
+
     /**
      * Adds a plane to the system with a unique ID and a specified capacity.
      * 
@@ -95,15 +439,22 @@ public class FlightManager {
      * @param capacity the maximum number of available seats on the plane
      * @throws FlightException if the planeId already exists or if the capacity is not positive
      */
-    public void addPlane(String planeId, int capacity) throws FlightException {
-        
-        if (planes.containsKey(planeId)) {
-            throw new FlightException("Plane " + planeId + " already exists");
-        }
+    public synchronized void addPlane(String planeId, int capacity) throws FlightException {
         if (capacity <= 0) {
             throw new FlightException("Capacity must be positive");
         }
-        planes.put(planeId, new Plane(planeId, capacity));
+        WriteAheadLog wal = beginMutation();
+        long sequence;
+        try {
+            byte[] record = wal == null ? null : LogRecord.plane(planeId, capacity);
+            if (planes.add(planeId, index -> new Plane(index, planeId, capacity)) < 0) {
+                throw new FlightException(FlightException.Reason.ALREADY_EXISTS, "Plane " + planeId + " already exists");
+            }
+            sequence = append(wal, record);
+        } finally {
+            endMutation();
+        }
+        awaitDurable(wal, sequence);
     }
 
     /**
@@ -131,74 +482,163 @@ public class FlightManager {
      * @throws FlightException if the leg does not exist, the plane is not defined, 
      *                         or the leg already has an assigned plane
      */
-    public int assignPlaneToLeg(String from, String to, String planeId) throws FlightException {
-        String legKey = from + ";" + to;
-        FlightLeg leg = legs.get(legKey);
+    public synchronized int assignPlaneToLeg(String from, String to, String planeId) throws FlightException {
+        FlightLeg leg = findLeg(from, to);
 
         if (leg == null) {
-            throw new FlightException("Leg " + legKey + " does not exist");
+            throw new FlightException(FlightException.Reason.NOT_FOUND, "Leg " + from + ";" + to + " does not exist");
         }
 
         Plane plane = planes.get(planeId);
         if (plane == null) {
-            throw new FlightException("Plane " + planeId + " not found");
+            throw new FlightException(FlightException.Reason.NOT_FOUND, "Plane " + planeId + " not found");
         }
 
-        if (leg.getAssignedPlane() != null) {
-            throw new FlightException("Leg " + legKey + " already has an assigned plane");
+        WriteAheadLog wal = beginMutation();
+        long sequence;
+        FlightLeg[] locked = lockLegs(Collections.singletonList(leg));
+        try {
+            if (leg.getAssignedPlane() != null) {
+                throw new FlightException(FlightException.Reason.ALREADY_EXISTS, "Leg " + leg.getKey() + " already has an assigned plane");
+            }
+            byte[] record = wal == null ? null : LogRecord.assignment(from, to, planeId);
+            leg.setAssignedPlane(plane, newInventory(leg.getId(), plane.getCapacity()));
+            sequence = append(wal, record);
+        } finally {
+            unlockLegs(locked);
+            endMutation();
         }
-
-        leg.setAssignedPlane(plane);
+        awaitDurable(wal, sequence);
         return plane.getCapacity();
     }
 
+    // an empty inventory for a leg, in the mapped store when one is in use
+    private SeatInventory newInventory(int legId, int capacity) throws FlightException {
+        if (seatStore == null) {
+            return new HeapSeatInventory(capacity);
+        }
+        if (capacity > seatStore.getMaxSeats()) {
+            throw new FlightException("The seat store holds at most " + seatStore.getMaxSeats() + " seats per leg");
+        }
+        try {
+            return seatStore.slot(legId, capacity);
+        } catch (IOException e) {
+            throw new FlightException("Cannot extend the seat store", e);
+        }
+    }
+
     /** 
      * Finds available seats for a journey between two airports.
+     * The seats are read without locking from the last published version of the legs, so searches
+     * never wait for bookings and see every booking or cancellation on all its legs or on none.
      * 
      * @param from the full name of the departure airport
      * @param to the full name of the arrival airport
      * @return a map that associates, for each leg between the departure and arrival airports,
      *         the list of available seats. The legs are represented in the format "from;to".
+     *         All the legs share the same unmodifiable, sorted list of seats free on the whole journey.
      * @throws FlightException if the route does not exist
      */
     public Map<String, List<Integer>> findAvailableSeats(String from, String to) throws FlightException {
-        List<String> routeLegs = findRouteLegs(from, to);
-        if (routeLegs.isEmpty()) {
-            throw new FlightException("Route from " + from + " to " + to + " does not exist");
+        long started = metrics.start();
+        try {
+            Map<String, List<Integer>> result = doFindAvailableSeats(from, to);
+            metrics.succeeded(Operation.FIND_AVAILABLE_SEATS, started);
+            return result;
+        } catch (FlightException e) {
+            metrics.failed(Operation.FIND_AVAILABLE_SEATS, started, e);
+            throw e;
         }
+    }
 
-        Map<String, List<Integer>> result = new HashMap<>();
-        Set<Integer> commonSeats = null;
+    private Map<String, List<Integer>> doFindAvailableSeats(String from, String to) throws FlightException {
+        List<FlightLeg> routeLegs = findRouteLegs(from, to);
+        if (routeLegs.isEmpty()) {
+            throw new FlightException(FlightException.Reason.NO_ROUTE, "Route from " + from + " to " + to + " does not exist");
+        }
 
-        // Find seats available on all legs
-        for (String legKey : routeLegs) {
-            FlightLeg leg = legs.get(legKey);
+        for (FlightLeg leg : routeLegs) {
             if (leg.getAssignedPlane() == null) {
-                throw new FlightException("Leg " + legKey + " has no assigned plane, cannot find available seats.");
-                
+                throw new FlightException(FlightException.Reason.NO_PLANE, "Leg " + leg.getKey() + " has no assigned plane, cannot find available seats.");
             }
+        }
 
-            List<Integer> availableSeats = leg.getAvailableSeats();
-
-            if (commonSeats == null) {
-                commonSeats = new HashSet<>(availableSeats);
-            } else {
-                commonSeats.retainAll(availableSeats);
+        // Intersect the legs word by word: a seat is free only if no leg has its bit set.
+        // All the legs come from the same published version, so no lock is needed
+        List<Integer> commonSeats = new ArrayList<>();
+        SeatSnapshot[] seats = seatView.get().get(routeLegs);
+        int words = SeatSnapshot.commonWordCount(seats);
+        for (int w = 0; w < words; w++) {
+            long free = SeatSnapshot.commonFreeWord(seats, w);
+            while (free != 0) {
+                commonSeats.add((w << 6) + Long.numberOfTrailingZeros(free) + 1);
+                free &= free - 1;
             }
         }
 
-        // Convert common seats to list
-        List<Integer> commonSeatsList = new ArrayList<>(commonSeats != null ? commonSeats : new HashSet<>());
-        Collections.sort(commonSeatsList);
-
-        // All legs should show the same available seats (only those available on all legs)
-        for (String legKey : routeLegs) {
-            result.put(legKey, new ArrayList<>(commonSeatsList));
+        // All legs show the same available seats (only those available on all legs)
+        List<Integer> sharedSeats = Collections.unmodifiableList(commonSeats);
+        Map<String, List<Integer>> result = new HashMap<>();
+        for (FlightLeg leg : routeLegs) {
+            result.put(leg.getKey(), sharedSeats);
         }
 
         return result;
     }
 
+    /**
+     * Finds the best alternative itineraries between two airports that can still be booked.
+     * Itineraries are ranked by the current {@link RoutePreference}; legs without a plane or without
+     * free seats are skipped during the search, and an itinerary is returned only if at least one
+     * seat number is free on all its legs at the time of the search.
+     * 
+     * @param from the full name of the departure airport
+     * @param to the full name of the arrival airport
+     * @param k the maximum number of itineraries to return
+     * @param maxStops the maximum number of intermediate airports of an itinerary
+     * @return up to k loopless itineraries, best first, each as the list of its legs in the format "from;to";
+     *         itineraries of equal cost are ordered by number of legs, then alphabetically
+     * @throws FlightException if either airport does not exist
+     */
+    public List<List<String>> findItineraries(String from, String to, int k, int maxStops) throws FlightException {
+        long started = metrics.start();
+        try {
+            List<List<String>> result = doFindItineraries(from, to, k, maxStops);
+            metrics.succeeded(Operation.FIND_ITINERARIES, started);
+            return result;
+        } catch (FlightException e) {
+            metrics.failed(Operation.FIND_ITINERARIES, started, e);
+            throw e;
+        }
+    }
+
+    private List<List<String>> doFindItineraries(String from, String to, int k, int maxStops) throws FlightException {
+        int start = airports.idOf(from);
+        int goal = airports.idOf(to);
+        if (start < 0 || goal < 0) {
+            throw new FlightException(FlightException.Reason.NOT_FOUND, "Airport " + (start < 0 ? from : to) + " not found");
+        }
+        if (!reachability.reaches(start, goal)) {
+            return new ArrayList<>();
+        }
+        // the whole search reads one version of the seats
+        SeatView view = seatView.get();
+        ItinerarySearch search = new ItinerarySearch(airports, this::legCost, leg -> {
+            SeatSnapshot seats = view.get(leg.getId());
+            return seats.getBookedCount() < seats.getCapacity();
+        });
+        List<List<String>> itineraries = new ArrayList<>();
+        for (List<FlightLeg> itinerary : search.find(start, goal, Math.min(maxStops, Integer.MAX_VALUE - 1) + 1, k,
+                route -> hasCommonFreeSeat(view.get(route)))) {
+            List<String> keys = new ArrayList<>(itinerary.size());
+            for (FlightLeg leg : itinerary) {
+                keys.add(leg.getKey());
+            }
+            itineraries.add(keys);
+        }
+        return itineraries;
+    }
+
     /**
      * Books a seat for a passenger on a journey between two airports.
      * 
@@ -210,56 +650,426 @@ public class FlightManager {
      * @throws FlightException if the route does not exist or the seat is not available on all legs
      */
     public String bookSeat(String passengerId, String from, String to, int seatNumber) throws FlightException {
-        List<String> routeLegs = findRouteLegs(from, to);
+        long started = metrics.start();
+        BookSeatEvent event = new BookSeatEvent();
+        event.begin();
+        try {
+            String code = doBookSeat(passengerId, from, to, seatNumber);
+            metrics.succeeded(Operation.BOOK_SEAT, started);
+            event.booked = true;
+            return code;
+        } catch (FlightException e) {
+            metrics.failed(Operation.BOOK_SEAT, started, e);
+            event.failure = e.getReason().name();
+            throw e;
+        } finally {
+            event.end();
+            if (event.shouldCommit()) {
+                event.from = from;
+                event.to = to;
+                event.seat = seatNumber;
+                event.commit();
+            }
+        }
+    }
+
+    private String doBookSeat(String passengerId, String from, String to, int seatNumber) throws FlightException {
+        List<FlightLeg> routeLegs = findRouteLegs(from, to);
         if (routeLegs.isEmpty()) {
-            throw new FlightException("Route from " + from + " to " + to + " does not exist");
+            throw new FlightException(FlightException.Reason.NO_ROUTE, "Route from " + from + " to " + to + " does not exist");
         }
 
-        // Check if seat is available on all legs
-        for (String legKey : routeLegs) {
-            FlightLeg leg = legs.get(legKey);
-            if (leg.getAssignedPlane() == null) {
-                throw new FlightException("No plane assigned to leg " + legKey);
+        WriteAheadLog wal = beginMutation();
+        long sequence;
+        int bookingCode;
+        FlightLeg[] locked = lockLegs(routeLegs);
+        try {
+            // Check if seat is available on all legs
+            for (FlightLeg leg : routeLegs) {
+                if (leg.getAssignedPlane() == null) {
+                    throw new FlightException(FlightException.Reason.NO_PLANE, "No plane assigned to leg " + leg.getKey());
+                }
+                if (seatNumber < 1 || seatNumber > leg.getAssignedPlane().getCapacity()) {
+                    throw new FlightException("Seat " + seatNumber + " does not exist on leg " + leg.getKey());
+                }
+                if (!leg.isSeatAvailable(seatNumber)) {
+                    throw new FlightException(FlightException.Reason.SEAT_UNAVAILABLE, "Seat " + seatNumber + " is not available on leg " + leg.getKey());
+                }
             }
-            if (seatNumber < 1 || seatNumber > leg.getAssignedPlane().getCapacity()) {
-                throw new FlightException("Seat " + seatNumber + " does not exist on leg " + legKey);
+
+            bookingCode = codeGenerator.next();
+            sequence = commitBookings(wal, new Booking(bookingCode, passengerId, from, to, seatNumber, routeLegs));
+        } finally {
+            unlockLegs(locked);
+            endMutation();
+        }
+        awaitDurable(wal, sequence);
+        return BookingCode.format(bookingCode);
+    }
+
+    /**
+     * Books a seat chosen by the given policy among the seats free on every leg of the journey.
+     * Choosing and reserving the seat happen in the same atomic step, so the seat cannot be
+     * taken by someone else in between.
+     * 
+     * @param passengerId the unique identifier of the passenger
+     * @param from the full name of the departure airport
+     * @param to the full name of the arrival airport
+     * @param policy how to choose the seat, e.g. {@link SeatPolicy#LOWEST_NUMBER}
+     * @return a unique booking code (6 random alphanumeric characters)
+     * @throws FlightException if the route does not exist, a leg has no plane,
+     *                         or the policy finds no acceptable free seat
+     */
+    public String bookAnySeat(String passengerId, String from, String to, SeatPolicy policy) throws FlightException {
+        long started = metrics.start();
+        try {
+            String result = doBookAnySeat(passengerId, from, to, policy);
+            metrics.succeeded(Operation.BOOK_ANY_SEAT, started);
+            return result;
+        } catch (FlightException e) {
+            metrics.failed(Operation.BOOK_ANY_SEAT, started, e);
+            throw e;
+        }
+    }
+
+    private String doBookAnySeat(String passengerId, String from, String to, SeatPolicy policy) throws FlightException {
+        List<FlightLeg> routeLegs = findRouteLegs(from, to);
+        if (routeLegs.isEmpty()) {
+            throw new FlightException(FlightException.Reason.NO_ROUTE, "Route from " + from + " to " + to + " does not exist");
+        }
+
+        WriteAheadLog wal = beginMutation();
+        long sequence;
+        int bookingCode;
+        FlightLeg[] locked = lockLegs(routeLegs);
+        try {
+            for (FlightLeg leg : routeLegs) {
+                if (leg.getAssignedPlane() == null) {
+                    throw new FlightException(FlightException.Reason.NO_PLANE, "No plane assigned to leg " + leg.getKey());
+                }
             }
-            if (!leg.isSeatAvailable(seatNumber)) {
-                throw new FlightException("Seat " + seatNumber + " is not available on leg " + legKey);
+
+            BitSet freeSeats = commonFreeSeats(FlightLeg.snapshots(routeLegs));
+            int seatNumber = policy.choose(freeSeats);
+            if (seatNumber <= 0 || !freeSeats.get(seatNumber)) {
+                throw new FlightException(FlightException.Reason.SEAT_UNAVAILABLE, "No seat available from " + from + " to " + to);
             }
+
+            bookingCode = codeGenerator.next();
+            sequence = commitBookings(wal, new Booking(bookingCode, passengerId, from, to, seatNumber, routeLegs));
+        } finally {
+            unlockLegs(locked);
+            endMutation();
         }
+        awaitDurable(wal, sequence);
+        return BookingCode.format(bookingCode);
+    }
 
-        // Generate booking code
-        String bookingCode = generateBookingCode();
+    /**
+     * Finds the first block of adjacent seats (consecutive seat numbers) free on every leg of a journey.
+     * 
+     * @param from the full name of the departure airport
+     * @param to the full name of the arrival airport
+     * @param n the number of adjacent seats wanted
+     * @return the n seat numbers of the lowest free block, in ascending order; empty if there is no such block
+     * @throws FlightException if the route does not exist, a leg has no plane, or n is not positive
+     */
+    public List<Integer> findContiguousSeats(String from, String to, int n) throws FlightException {
+        long started = metrics.start();
+        try {
+            List<Integer> result = doFindContiguousSeats(from, to, n);
+            metrics.succeeded(Operation.FIND_CONTIGUOUS_SEATS, started);
+            return result;
+        } catch (FlightException e) {
+            metrics.failed(Operation.FIND_CONTIGUOUS_SEATS, started, e);
+            throw e;
+        }
+    }
 
-        // Book the seat on all legs
-        for (String legKey : routeLegs) {
-            FlightLeg leg = legs.get(legKey);
-            leg.bookSeat(seatNumber, bookingCode);
+    private List<Integer> doFindContiguousSeats(String from, String to, int n) throws FlightException {
+        List<FlightLeg> routeLegs = lockableRoute(from, to, n);
+        SeatSnapshot[] legSeats = seatView.get().get(routeLegs);
+        // nothing is sized by n before a block is found: a block larger than the smallest plane cannot exist
+        for (SeatSnapshot snapshot : legSeats) {
+            if (n > snapshot.getCapacity()) {
+                return new ArrayList<>();
+            }
+        }
+        int first = firstFreeBlock(legSeats, n);
+        if (first <= 0) {
+            return new ArrayList<>();
         }
 
-        return bookingCode;
+        List<Integer> seats = new ArrayList<>(n);
+        for (int seat = first; seat < first + n; seat++) {
+            seats.add(seat);
+        }
+        return seats;
     }
 
     /**
-     * Lists all valid booking codes for a specific flight leg.
+     * Books a block of adjacent seats free on every leg of a journey, one per passenger,
+     * finding and reserving the block in the same atomic step.
      * 
      * @param from the full name of the departure airport
      * @param to the full name of the arrival airport
-     * @return a list of all valid booking codes for the specified leg, sorted alphabetically
+     * @param passengerIds the passengers, who get consecutive seats in this order
+     * @return the booking codes, in the same order as the passengers
+     * @throws FlightException if the route does not exist, a leg has no plane,
+     *                         the list is empty, or no block of adjacent seats is free
      */
-    public List<String> listBookingsForLeg(String from, String to) {
+    public List<String> bookContiguousSeats(String from, String to, List<String> passengerIds) throws FlightException {
+        long started = metrics.start();
+        try {
+            List<String> result = doBookContiguousSeats(from, to, passengerIds);
+            metrics.succeeded(Operation.BOOK_CONTIGUOUS_SEATS, started);
+            return result;
+        } catch (FlightException e) {
+            metrics.failed(Operation.BOOK_CONTIGUOUS_SEATS, started, e);
+            throw e;
+        }
+    }
+
+    private List<String> doBookContiguousSeats(String from, String to, List<String> passengerIds) throws FlightException {
+        int n = passengerIds.size();
+        List<FlightLeg> routeLegs = lockableRoute(from, to, n);
 
-        String legKey = from + ";" + to;
-        FlightLeg leg = legs.get(legKey);
+        WriteAheadLog wal = beginMutation();
+        long sequence = 0;
+        int[] bookingCodes;
+        FlightLeg[] locked = lockLegs(routeLegs);
+        try {
+            int first = firstFreeBlock(FlightLeg.snapshots(routeLegs), n);
+            if (first <= 0) {
+                throw new FlightException(FlightException.Reason.SEAT_UNAVAILABLE, "No block of " + n + " adjacent seats available from " + from + " to " + to);
+            }
 
+            bookingCodes = codeGenerator.next(n);
+            Booking[] newBookings = new Booking[n];
+            for (int i = 0; i < n; i++) {
+                newBookings[i] = new Booking(bookingCodes[i], passengerIds.get(i), from, to, first + i, routeLegs);
+            }
+            sequence = commitBookings(wal, newBookings);
+        } finally {
+            unlockLegs(locked);
+            endMutation();
+        }
+        awaitDurable(wal, sequence);
+        return formatCodes(bookingCodes);
+    }
+
+    /**
+     * Books several seats on the same journey in one operation, e.g. for a group.
+     * The route is resolved once and all the seats are validated together:
+     * either every seat is booked or none is.
+     * 
+     * @param from the full name of the departure airport
+     * @param to the full name of the arrival airport
+     * @param requests the passengers and the seat each of them wants
+     * @return the booking codes, in the same order as the requests
+     * @throws FlightException if the route does not exist, a leg has no plane,
+     *                         a seat is requested twice or is not available on all legs
+     */
+    public List<String> bookSeats(String from, String to, List<SeatRequest> requests) throws FlightException {
+        long started = metrics.start();
+        try {
+            List<String> result = doBookSeats(from, to, requests);
+            metrics.succeeded(Operation.BOOK_SEATS, started);
+            return result;
+        } catch (FlightException e) {
+            metrics.failed(Operation.BOOK_SEATS, started, e);
+            throw e;
+        }
+    }
+
+    private List<String> doBookSeats(String from, String to, List<SeatRequest> requests) throws FlightException {
+        List<FlightLeg> routeLegs = findRouteLegs(from, to);
+        if (routeLegs.isEmpty()) {
+            throw new FlightException(FlightException.Reason.NO_ROUTE, "Route from " + from + " to " + to + " does not exist");
+        }
+
+        WriteAheadLog wal = beginMutation();
+        long sequence = 0;
+        int[] bookingCodes;
+        FlightLeg[] locked = lockLegs(routeLegs);
+        try {
+            for (FlightLeg leg : routeLegs) {
+                if (leg.getAssignedPlane() == null) {
+                    throw new FlightException(FlightException.Reason.NO_PLANE, "No plane assigned to leg " + leg.getKey());
+                }
+            }
+
+            // Collect the requested seats as a bitmap and check it against the legs word by word
+            SeatSnapshot[] seats = FlightLeg.snapshots(routeLegs);
+            int words = SeatSnapshot.commonWordCount(seats);
+            long[] requested = new long[words];
+            for (SeatRequest request : requests) {
+                int bit = request.getSeatNumber() - 1;
+                if (bit < 0 || (bit >>> 6) >= words) {
+                    throw new FlightException(FlightException.Reason.SEAT_UNAVAILABLE, "Seat " + request.getSeatNumber() + " is not available from " + from + " to " + to);
+                }
+                if ((requested[bit >>> 6] & (1L << bit)) != 0) {
+                    throw new FlightException("Seat " + request.getSeatNumber() + " is requested more than once");
+                }
+                requested[bit >>> 6] |= 1L << bit;
+            }
+            for (int w = 0; w < words; w++) {
+                long unavailable = requested[w] & ~SeatSnapshot.commonFreeWord(seats, w);
+                if (unavailable != 0) {
+                    int seat = (w << 6) + Long.numberOfTrailingZeros(unavailable) + 1;
+                    throw new FlightException(FlightException.Reason.SEAT_UNAVAILABLE, "Seat " + seat + " is not available from " + from + " to " + to);
+                }
+            }
+
+            bookingCodes = codeGenerator.next(requests.size());
+            Booking[] newBookings = new Booking[bookingCodes.length];
+            for (int i = 0; i < bookingCodes.length; i++) {
+                SeatRequest request = requests.get(i);
+                newBookings[i] = new Booking(bookingCodes[i], request.getPassengerId(), from, to,
+                        request.getSeatNumber(), routeLegs);
+            }
+            sequence = commitBookings(wal, newBookings);
+        } finally {
+            unlockLegs(locked);
+            endMutation();
+        }
+        awaitDurable(wal, sequence);
+        return formatCodes(bookingCodes);
+    }
+
+    /**
+     * Cancels a booking, releasing its seat on every leg of the itinerary.
+     * 
+     * @param bookingId the booking code returned by {@link #bookSeat}
+     * @throws FlightException if no booking has the given code (or it was already cancelled)
+     */
+    public void cancelBooking(String bookingId) throws FlightException {
+        long started = metrics.start();
+        try {
+            doCancelBooking(bookingId);
+            metrics.succeeded(Operation.CANCEL_BOOKING, started);
+        } catch (FlightException e) {
+            metrics.failed(Operation.CANCEL_BOOKING, started, e);
+            throw e;
+        }
+    }
+
+    private void doCancelBooking(String bookingId) throws FlightException {
+        Booking booking = bookings.get(BookingCode.parse(bookingId));
+        if (booking == null) {
+            throw new FlightException(FlightException.Reason.NOT_FOUND, "Booking " + bookingId + " not found");
+        }
+
+        WriteAheadLog wal = beginMutation();
+        long sequence;
+        FlightLeg[] locked = lockLegs(booking.getFlightLegs());
+        try {
+            // a concurrent cancellation of the same code may have won the race; the legs' locks keep out
+            // any other, so once the booking is still registered here the removal below succeeds
+            if (bookings.get(booking.getCode()) != booking) {
+                throw new FlightException(FlightException.Reason.NOT_FOUND, "Booking " + bookingId + " not found");
+            }
+            byte[] record = wal == null ? null : LogRecord.cancellation(booking.getCode());
+            // kept for a running checkpoint before it disappears from the registry
+            IntHashMap<Booking> retired = checkpointRetired;
+            if (retired != null) {
+                retired.putIfAbsent(booking.getCode(), booking);
+            }
+            bookings.remove(booking);
+            for (FlightLeg leg : booking.getFlightLegs()) {
+                leg.cancelSeat(booking.getSeatNumber(), booking.getCode());
+                leaderboard.update(leg.getKey(), leg.getCurrentBookingCount());
+            }
+            // logged before the code is released, so a later booking reusing it is logged after
+            sequence = append(wal, record);
+            if (retired == null) {
+                codeGenerator.release(booking.getCode());
+            }
+        } finally {
+            unlockLegs(locked);
+            endMutation();
+        }
+        awaitDurable(wal, sequence);
+    }
+
+    /**
+     * Returns the booking with the given code.
+     * 
+     * @param bookingId the booking code returned by {@link #bookSeat}
+     * @return the booking
+     * @throws FlightException if no booking has the given code
+     */
+    public Booking getBooking(String bookingId) throws FlightException {
+        Booking booking = bookings.get(BookingCode.parse(bookingId));
+        if (booking == null) {
+            throw new FlightException(FlightException.Reason.NOT_FOUND, "Booking " + bookingId + " not found");
+        }
+        return booking;
+    }
+
+    /**
+     * Returns the bookings made by a passenger.
+     * 
+     * @param passengerId the unique identifier of the passenger
+     * @return the passenger's bookings, sorted by booking code; empty if the passenger has none
+     */
+    public List<Booking> getBookingsForPassenger(String passengerId) {
+        List<Booking> result = new ArrayList<>(bookings.forPassenger(passengerId));
+        result.sort(Comparator.comparing(Booking::getBookingId));
+        return result;
+    }
+
+    /**
+     * Returns the bookings that travel on a specific flight leg.
+     * 
+     * @param from the full name of the departure airport
+     * @param to the full name of the arrival airport
+     * @return the bookings on the leg, sorted by booking code; empty if the leg does not exist
+     */
+    public List<Booking> getBookingsForLeg(String from, String to) {
+        List<Booking> result = new ArrayList<>();
+        FlightLeg leg = findLeg(from, to);
         if (leg == null) {
-            return new ArrayList<>();
+            return result;
+        }
+        for (int code : leg.getPackedBookingCodes()) {
+            // the codes are read before the bookings: skip one cancelled in between,
+            // or whose code was already reused by a booking on other legs
+            Booking booking = bookings.get(code);
+            if (booking != null && booking.getFlightLegs().contains(leg)) {
+                result.add(booking);
+            }
         }
+        return result;
+    }
 
-        List<String> bookings = new ArrayList<>(leg.getBookingCodes());
-        Collections.sort(bookings);
-        return bookings;
+    /**
+     * Lists all valid booking codes for a specific flight leg.
+     * 
+     * @param from the full name of the departure airport
+     * @param to the full name of the arrival airport
+     * @return a list of all valid booking codes for the specified leg, sorted alphabetically
+     */
+    public List<String> listBookingsForLeg(String from, String to) {
+        return listBookingsForLeg(from, to, null, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Lists one page of the booking codes for a specific flight leg, for streaming large manifests.
+     * 
+     * @param from the full name of the departure airport
+     * @param to the full name of the arrival airport
+     * @param afterCode the last code of the previous page, or null to start from the first code
+     * @param limit the maximum number of codes to return
+     * @return up to limit booking codes following afterCode, sorted alphabetically;
+     *         empty when there are no more codes or the leg does not exist
+     */
+    public List<String> listBookingsForLeg(String from, String to, String afterCode, int limit) {
+        long started = metrics.start();
+        FlightLeg leg = findLeg(from, to);
+        List<String> codes = leg == null ? new ArrayList<>() : leg.getBookingCodes(afterCode, limit);
+        metrics.succeeded(Operation.LIST_BOOKINGS_FOR_LEG, started);
+        return codes;
     }
 
     /**
@@ -270,14 +1080,175 @@ public class FlightManager {
      * @return the occupation rate (a float between 0.0 and 1.0) calculated as booked seats / total seats
      */
     public double occupationRate(String from, String to) {
-        String legKey = from + ";" + to;
-        FlightLeg leg = legs.get(legKey);
+        long started = metrics.start();
+        FlightLeg leg = findLeg(from, to);
+        double rate = leg == null ? 0.0 : leg.getOccupationRate();
+        metrics.succeeded(Operation.OCCUPATION_RATE, started);
+        return rate;
+    }
 
-        if (leg == null || leg.getAssignedPlane() == null) {
-            return 0.0;
+    /**
+     * Writes a snapshot of the whole state and starts a new, empty write-ahead log.
+     * Durable managers also do this automatically every checkpoint interval, on a background thread;
+     * in-memory managers ignore it. Changes wait only while the log is switched, not while
+     * the snapshot is written.
+     * 
+     * @throws FlightException if the snapshot cannot be written
+     */
+    public void checkpoint() throws FlightException {
+        if (dataDirectory == null) {
+            return;
+        }
+        synchronized (checkpointLock) {
+            // writers wait only while a view of the state is taken and the log is switched: the seats are
+            // a persistent view and the tables only grow, so the snapshot is streamed from the view after
+            // they have resumed
+            SeatView view;
+            List<Airport> airportList;
+            List<FlightLeg> legList;
+            List<Plane> planeList;
+            long nextEpoch;
+            stateLock.writeLock().lock();
+            try {
+                view = seatView.get();
+                airportList = airports.values();
+                legList = legs.values();
+                planeList = planes.values();
+                // every record of the old log is on disk before the new log takes any,
+                // so recovery can replay the two one after the other
+                log.close();
+                nextEpoch = epoch + 1;
+                log = new WriteAheadLog(logFile(nextEpoch));
+                epoch = nextEpoch;
+                checkpointDue = checkpointInterval;
+                checkpointRetired = new IntHashMap<>();
+            } catch (IOException e) {
+                throw new FlightException("Cannot switch to a new log in " + dataDirectory, e);
+            } finally {
+                stateLock.writeLock().unlock();
+            }
+
+            Path temporary = dataDirectory.resolve(SNAPSHOT_FILE + ".tmp");
+            try {
+                try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16);
+                    DataOutputStream header = new DataOutputStream(out);
+                    header.writeInt(SNAPSHOT_MAGIC);
+                    header.writeLong(nextEpoch);
+                    writeSnapshot(out, view, airportList, legList, planeList, checkpointRetired);
+                    out.flush();
+                    channel.force(true);
+                }
+                // the rename is the commit point: from here on recovery starts from the new snapshot
+                Files.move(temporary, dataDirectory.resolve(SNAPSHOT_FILE), StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+                deleteStaleFiles(nextEpoch);
+            } catch (IOException | UncheckedIOException e) {
+                throw new FlightException("Cannot write a snapshot to " + dataDirectory, e);
+            } finally {
+                // no cancellation is running while the held codes are handed back
+                stateLock.writeLock().lock();
+                try {
+                    checkpointRetired.forEach(booking -> codeGenerator.release(booking.getCode()));
+                    checkpointRetired = null;
+                } finally {
+                    stateLock.writeLock().unlock();
+                }
+            }
         }
+    }
 
-        return leg.getOccupationRate();
+    /**
+     * Flushes the write-ahead log and the mapped seat store, if any, and releases their files.
+     * 
+     * @throws FlightException if the log or the seat store cannot be flushed
+     */
+    @Override
+    public void close() throws FlightException {
+        if (checkpointer != null) {
+            // let a running checkpoint finish before its log is closed
+            checkpointer.shutdown();
+            try {
+                checkpointer.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        try {
+            synchronized (this) {
+                if (seatStore != null) {
+                    seatStore.close();
+                }
+            }
+            if (log != null) {
+                log.close();
+            }
+        } catch (IOException e) {
+            throw new FlightException("Cannot close the manager", e);
+        }
+    }
+
+    /**
+     * Moves the working seat inventories of all the legs, present and future, into a memory-mapped file.
+     * Every leg gets a fixed-size slot in the file, indexed by its internal id. The bookings made so far
+     * are carried over.
+     * <p>
+     * This does not reduce the heap. Readers never lock a leg: they read the immutable snapshot
+     * published after each change, and every snapshot holds its own heap copy of the leg's seat bitmap.
+     * The heap therefore holds one bitmap per leg with or without the store, and the store only adds
+     * the writers' copy in the file. Nor does the file warm up a restart: it is overwritten when the
+     * store is opened, and in durable mode the state always comes back from the snapshot and the log.
+     * 
+     * @param file the file that backs the inventories; it is created if missing and its content is overwritten
+     * @param maxSeats the largest plane capacity the store must accommodate
+     * @throws FlightException if a store is already in use, a plane already assigned to a leg has more than
+     *                         maxSeats seats, or the file cannot be mapped
+     */
+    public synchronized void useMappedSeatStore(Path file, int maxSeats) throws FlightException {
+        if (seatStore != null) {
+            throw new FlightException(FlightException.Reason.ALREADY_EXISTS, "A seat store is already in use");
+        }
+        for (FlightLeg leg : legs.values()) {
+            Plane plane = leg.getAssignedPlane();
+            if (plane != null && plane.getCapacity() > maxSeats) {
+                throw new FlightException("Plane " + plane.getId() + " has more than " + maxSeats + " seats");
+            }
+        }
+        try {
+            MappedSeatStore store = new MappedSeatStore(file, maxSeats);
+            for (FlightLeg leg : legs.values()) {
+                Plane plane = leg.getAssignedPlane();
+                if (plane != null) {
+                    leg.moveInventory(store.slot(leg.getId(), plane.getCapacity()));
+                }
+            }
+            seatStore = store;
+        } catch (IOException e) {
+            throw new FlightException("Cannot map the seat store " + file, e);
+        }
+    }
+
+    /**
+     * Turns the collection of operation metrics on or off. Metrics are off by default, and while off
+     * they cost one volatile read per operation. Turning them on starts a new measurement window.
+     * JDK Flight Recorder events for {@link #bookSeat} and route searches are independent of this
+     * switch: they are emitted whenever a recording enables them.
+     * 
+     * @param enabled true to collect metrics
+     */
+    public void setMetricsEnabled(boolean enabled) {
+        metrics.setEnabled(enabled);
+    }
+
+    /**
+     * Returns the metrics collected since they were last enabled: per-operation counts, errors
+     * by reason and latency percentiles, route lookup depths, and bookings per leg.
+     * 
+     * @return a snapshot of the metrics; all counts are zero if metrics were never enabled
+     */
+    public FlightMetrics getMetrics() {
+        return metrics.snapshot();
     }
 
     /**
@@ -287,60 +1258,514 @@ public class FlightManager {
      *         If multiple legs share the highest number of unique bookings, returns the first in alphabetic order.
      */
     public String mostPopularLeg() {
-        String mostPopular = null;
-        int maxBookings = 0;
+        long started = metrics.start();
+        String leg = leaderboard.top();
+        metrics.succeeded(Operation.MOST_POPULAR_LEG, started);
+        return leg;
+    }
 
-        List<String> sortedLegKeys = new ArrayList<>(legs.keySet());
-        Collections.sort(sortedLegKeys);
+    /**
+     * Returns the legs with the highest number of bookings.
+     * 
+     * @param k the maximum number of legs to return
+     * @return up to k legs in the format "from;to", by decreasing number of unique bookings;
+     *         legs with the same number of bookings are in alphabetic order. Legs without bookings are not listed.
+     */
+    public List<String> topLegs(int k) {
+        return leaderboard.top(k);
+    }
 
-        for (String legKey : sortedLegKeys) {
-            FlightLeg leg = legs.get(legKey);
-            int bookings = leg.getBookingCodes().size();
+    // Helper methods
+    // resolves the legs from one airport to another, memoized until the next leg is defined
+    private List<FlightLeg> findRouteLegs(String from, String to) {
+        // unreachable pairs are answered without searching or filling the cache
+        int start = airports.idOf(from);
+        int goal = airports.idOf(to);
+        if (start < 0 || goal < 0 || !reachability.reaches(start, goal)) {
+            metrics.routeRejected();
+            return Collections.emptyList();
+        }
+        Map<String, Map<String, List<FlightLeg>>> cache = routeCache;
+        Map<String, List<FlightLeg>> cachedFrom = cache.get(from);
+        if (cachedFrom != null) {
+            List<FlightLeg> cached = cachedFrom.get(to);
+            if (cached != null) {
+                metrics.routeCached(cached.size());
+                return cached;
+            }
+        }
 
-            if (bookings > maxBookings) {
-                maxBookings = bookings;
-                mostPopular = legKey;
+        RouteResolutionEvent event = new RouteResolutionEvent();
+        event.begin();
+        List<FlightLeg> route = Collections.unmodifiableList(searchRouteLegs(from, to));
+        event.end();
+        if (event.shouldCommit()) {
+            event.from = from;
+            event.to = to;
+            event.legs = route.size();
+            event.commit();
+        }
+        metrics.routeSearched(route.size());
+        cache.computeIfAbsent(from, k -> new ConcurrentHashMap<>()).put(to, route);
+        return route;
+    }
+
+    // books the validated seats on every leg, records the bookings and logs them; the caller holds the legs'
+    // locks and has reserved the codes. the records are encoded first, so if one cannot be logged no seat
+    // is taken and the codes are released. returns the log sequence number to wait for
+    private long commitBookings(WriteAheadLog wal, Booking... newBookings) throws FlightException {
+        byte[][] records = new byte[newBookings.length][];
+        if (wal != null) {
+            try {
+                for (int i = 0; i < newBookings.length; i++) {
+                    records[i] = LogRecord.booking(newBookings[i]);
+                }
+            } catch (FlightException e) {
+                for (Booking booking : newBookings) {
+                    codeGenerator.release(booking.getCode());
+                }
+                throw e;
             }
         }
+        long sequence = 0;
+        for (int i = 0; i < newBookings.length; i++) {
+            Booking booking = newBookings[i];
+            for (FlightLeg leg : booking.getFlightLegs()) {
+                leg.bookSeat(booking.getSeatNumber(), booking.getCode());
+                leaderboard.update(leg.getKey(), leg.getCurrentBookingCount());
+                metrics.legBooked(leg);
+            }
+            bookings.add(booking);
+            sequence = append(wal, records[i]);
+        }
+        return sequence;
+    }
 
-        return mostPopular;
+    private List<String> formatCodes(int[] bookingCodes) {
+        List<String> result = new ArrayList<>(bookingCodes.length);
+        for (int bookingCode : bookingCodes) {
+            result.add(BookingCode.format(bookingCode));
+        }
+        return result;
     }
-    // Helper methods
-    private List<String> findRouteLegs(String from, String to) {
-        List<String> result = new ArrayList<>();
-
-        // Try to find a direct route or route through intermediate stops
-        for (String legKey : legs.keySet()) {
-            String[] parts = legKey.split(";");
-            if (parts[0].equals(from)) {
-                if (parts[1].equals(to)) {
-                    // Direct route
-                    result.add(legKey);
-                    return result;
-                } else {
-                    // Check if there's a continuation
-                    List<String> continuation = findRouteLegs(parts[1], to);
-                    if (!continuation.isEmpty()) {
-                        result.add(legKey);
-                        result.addAll(continuation);
-                        return result;
+
+    // re-applies a logged booking on the legs it was made on
+    void restoreBooking(int bookingCode, String passengerId, String from, String to, int seatNumber, int[] legIds)
+            throws FlightException {
+        List<FlightLeg> bookedLegs = new ArrayList<>(legIds.length);
+        for (int legId : legIds) {
+            if (legId < 0 || legId >= legs.size()) {
+                throw new FlightException(FlightException.Reason.STORAGE, "Booking refers to unknown leg " + legId);
+            }
+            bookedLegs.add(legs.get(legId));
+        }
+        codeGenerator.reserve(bookingCode);
+        FlightLeg[] locked = lockLegs(bookedLegs);
+        try {
+            commitBookings(null, new Booking(bookingCode, passengerId, from, to, seatNumber,
+                    Collections.unmodifiableList(bookedLegs)));
+        } finally {
+            unlockLegs(locked);
+        }
+    }
+
+    private static List<String> uniqueNames(List<Airport> found) {
+        List<String> names = new ArrayList<>(found.size());
+        for (Airport airport : found) {
+            names.add(airport.getUniqueName());
+        }
+        return names;
+    }
+
+    // Persistence helpers
+    // enters a mutation; in durable mode holds off checkpoints until endMutation. returns the log to append to
+    // fails once the log has failed: a change that could not be logged must not be made
+    private WriteAheadLog beginMutation() throws FlightException {
+        if (dataDirectory == null) {
+            return null;
+        }
+        stateLock.readLock().lock();
+        // no log yet while recovering
+        WriteAheadLog wal = log;
+        IOException failure = wal == null ? null : wal.getFailure();
+        if (failure != null) {
+            stateLock.readLock().unlock();
+            throw new FlightException(FlightException.Reason.STORAGE, "The log cannot be written, no more changes are accepted", failure);
+        }
+        return wal;
+    }
+
+    private void endMutation() {
+        if (dataDirectory != null) {
+            stateLock.readLock().unlock();
+        }
+    }
+
+    // appends a record to the log, if any; returns its sequence number, 0 when nothing was logged.
+    // callers encode the record only when there is a log, and before changing anything, so a change
+    // that cannot be encoded is rejected whole
+    private long append(WriteAheadLog wal, byte[] record) {
+        return wal == null ? 0 : wal.append(record);
+    }
+
+    // waits until a logged mutation is durable; called after all locks are released so fsyncs are batched
+    private void awaitDurable(WriteAheadLog wal, long sequence) throws FlightException {
+        if (wal == null || sequence == 0) {
+            return;
+        }
+        try {
+            wal.sync(sequence);
+        } catch (IOException e) {
+            throw new FlightException("Cannot write the log", e);
+        }
+        // the mutation is durable: a checkpoint that fails later is not its failure
+        if (wal.records() >= checkpointDue && checkpointPending.compareAndSet(false, true)) {
+            try {
+                checkpointer.execute(this::backgroundCheckpoint);
+            } catch (RejectedExecutionException e) {
+                // the manager is closing
+                checkpointPending.set(false);
+            }
+        }
+    }
+
+    // runs on the checkpoint thread; a failure is logged and retried one interval later
+    private void backgroundCheckpoint() {
+        try {
+            checkpoint();
+        } catch (FlightException | RuntimeException e) {
+            checkpointDue = log.records() + checkpointInterval;
+            LOGGER.log(Level.WARNING, "Checkpoint of " + dataDirectory + " failed, retrying after "
+                    + checkpointInterval + " more records", e);
+        } finally {
+            checkpointPending.set(false);
+        }
+    }
+
+    private void recover() throws IOException, FlightException {
+        Path snapshot = dataDirectory.resolve(SNAPSHOT_FILE);
+        if (Files.exists(snapshot)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshot)))) {
+                if (in.readInt() != SNAPSHOT_MAGIC) {
+                    throw new FlightException(FlightException.Reason.STORAGE, snapshot + " is not a snapshot");
+                }
+                epoch = in.readLong();
+                // a snapshot is renamed into place whole, so unlike a log it has no torn tail to cut off:
+                // any frame that does not read back means the file is damaged
+                long size = Files.size(snapshot) - SNAPSHOT_HEADER_LENGTH;
+                if (WriteAheadLog.readFrames(in, size, record -> LogRecord.apply(record, this)) != size) {
+                    throw new FlightException(FlightException.Reason.STORAGE, snapshot + " is corrupt");
+                }
+            }
+        }
+
+        // replay the logs written after the snapshot: usually one, more if a checkpoint switched logs
+        // but did not get to write its snapshot. then cut off a record torn by a crash, which can
+        // only end the last log
+        long snapshotEpoch = epoch;
+        long valid = replayLog(logFile(epoch));
+        while (Files.exists(logFile(epoch + 1))) {
+            epoch++;
+            valid = replayLog(logFile(epoch));
+        }
+        Path logFile = logFile(epoch);
+        if (Files.exists(logFile)) {
+            try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.WRITE)) {
+                channel.truncate(valid);
+            }
+        }
+        deleteStaleFiles(snapshotEpoch);
+        log = new WriteAheadLog(logFile);
+    }
+
+    // applies the valid records of a log, if it exists; returns the number of bytes they take
+    private long replayLog(Path logFile) throws IOException, FlightException {
+        if (!Files.exists(logFile)) {
+            return 0;
+        }
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(logFile))) {
+            return WriteAheadLog.readFrames(in, Files.size(logFile), record -> LogRecord.apply(record, this));
+        }
+    }
+
+    // logs of epochs before the snapshot's are already contained in it
+    private void deleteStaleFiles(long snapshotEpoch) throws IOException {
+        Files.deleteIfExists(dataDirectory.resolve(SNAPSHOT_FILE + ".tmp"));
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dataDirectory, LOG_PREFIX + "*" + LOG_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    long logEpoch = Long.parseLong(name.substring(LOG_PREFIX.length(), name.length() - LOG_SUFFIX.length()));
+                    if (logEpoch < snapshotEpoch) {
+                        Files.delete(file);
                     }
+                } catch (NumberFormatException e) {
+                    // not one of our logs
                 }
             }
         }
+    }
 
-        return result;
+    private Path logFile(long logEpoch) {
+        return dataDirectory.resolve(LOG_PREFIX + logEpoch + LOG_SUFFIX);
     }
 
-    private String generateBookingCode() {
-        StringBuilder code = new StringBuilder();
-        String chars = "ABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
+    // the state of a checkpoint's view as the shortest sequence of records that rebuilds it.
+    // the bookings are found through the booking codes of each leg in the view, and written once,
+    // at the first leg of their itinerary; a booking cancelled since the view was taken is in retired
+    private void writeSnapshot(OutputStream out, SeatView view, List<Airport> airportList, List<FlightLeg> legList,
+                               List<Plane> planeList, IntHashMap<Booking> retired) throws FlightException {
+        for (Airport airport : airportList) {
+            WriteAheadLog.writeFrame(out, LogRecord.airport(airport.getName(), airport.getCity(),
+                    airport.getLatitude(), airport.getLongitude()));
+        }
+        // one single-leg route per leg, in id order, so the legs get the same ids back
+        for (FlightLeg leg : legList) {
+            WriteAheadLog.writeFrame(out, LogRecord.route(leg.getFrom(), leg.getTo()));
+        }
+        for (Plane plane : planeList) {
+            WriteAheadLog.writeFrame(out, LogRecord.plane(plane.getId(), plane.getCapacity()));
+        }
+        // a plane is assigned once, so a leg with seats in the view still has the plane it had then
+        for (FlightLeg leg : legList) {
+            if (view.get(leg.getId()).getCapacity() > 0) {
+                Plane plane = leg.getAssignedPlane();
+                WriteAheadLog.writeFrame(out, LogRecord.assignment(leg.getFrom(), leg.getTo(), plane.getId()));
+            }
+        }
+        for (FlightLeg leg : legList) {
+            SeatSnapshot seats = view.get(leg.getId());
+            int[] codes = seats.getBookingCodes(true, 0, SNAPSHOT_PAGE);
+            while (codes.length > 0) {
+                for (int code : codes) {
+                    Booking booking = bookings.get(code);
+                    if (booking == null) {
+                        booking = retired.get(code);
+                    }
+                    if (booking.getFlightLegs().get(0) == leg) {
+                        WriteAheadLog.writeFrame(out, LogRecord.booking(booking));
+                    }
+                }
+                codes = codes.length < SNAPSHOT_PAGE ? new int[0]
+                        : seats.getBookingCodes(false, codes[codes.length - 1], SNAPSHOT_PAGE);
+            }
+        }
+    }
 
-        for (int i = 0; i < 6; i++) {
-            code.append(chars.charAt(random.nextInt(chars.length())));
+    // route of a block search, checked for existence, assigned planes and a positive block size
+    private List<FlightLeg> lockableRoute(String from, String to, int n) throws FlightException {
+        if (n <= 0) {
+            throw new FlightException("The number of seats must be positive");
         }
+        List<FlightLeg> routeLegs = findRouteLegs(from, to);
+        if (routeLegs.isEmpty()) {
+            throw new FlightException(FlightException.Reason.NO_ROUTE, "Route from " + from + " to " + to + " does not exist");
+        }
+        for (FlightLeg leg : routeLegs) {
+            if (leg.getAssignedPlane() == null) {
+                throw new FlightException(FlightException.Reason.NO_PLANE, "No plane assigned to leg " + leg.getKey());
+            }
+        }
+        return routeLegs;
+    }
 
-        return code.toString();
+    // first seat of the lowest run of n seats free on every leg, or 0.
+    // runs of free bits are measured with trailing-zero counts, so a word is consumed a run at a time
+    private int firstFreeBlock(SeatSnapshot[] seats, int n) {
+        int words = SeatSnapshot.commonWordCount(seats);
+        int run = 0;
+        int runStart = 0;
+        for (int w = 0; w < words; w++) {
+            long free = SeatSnapshot.commonFreeWord(seats, w);
+            int pos = 0;
+            while (pos < 64) {
+                long rest = free >>> pos;
+                if (rest == 0) {
+                    run = 0;
+                    break;
+                }
+                int taken = Long.numberOfTrailingZeros(rest);
+                if (taken > 0) {
+                    run = 0;
+                    pos += taken;
+                    continue;
+                }
+                int ones = Math.min(Long.numberOfTrailingZeros(~rest), 64 - pos);
+                if (run == 0) {
+                    runStart = (w << 6) + pos;
+                }
+                run += ones;
+                if (run >= n) {
+                    return runStart + 1;
+                }
+                pos += ones;
+            }
+        }
+        return 0;
+    }
+
+    // seats free on every leg, with bit n standing for seat n
+    private BitSet commonFreeSeats(SeatSnapshot[] seats) {
+        int words = SeatSnapshot.commonWordCount(seats);
+        long[] shifted = new long[words + 1];
+        long carry = 0;
+        for (int w = 0; w < words; w++) {
+            long free = SeatSnapshot.commonFreeWord(seats, w);
+            shifted[w] = (free << 1) | carry;
+            carry = free >>> 63;
+        }
+        shifted[words] = carry;
+        return BitSet.valueOf(shifted);
+    }
+
+    // true if some seat number is free on every leg
+    private boolean hasCommonFreeSeat(SeatSnapshot[] seats) {
+        int words = SeatSnapshot.commonWordCount(seats);
+        for (int w = 0; w < words; w++) {
+            if (SeatSnapshot.commonFreeWord(seats, w) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // locks the legs in ascending id order, the global order that keeps multi-leg locking deadlock-free
+    private FlightLeg[] lockLegs(List<FlightLeg> routeLegs) {
+        FlightLeg[] ordered = routeLegs.toArray(new FlightLeg[0]);
+        Arrays.sort(ordered, Comparator.comparingInt(FlightLeg::getId));
+        for (int i = 0; i < ordered.length; i++) {
+            ordered[i].lock();
+        }
+        return ordered;
+    }
+
+    // publishes what changed on the legs as one new seat view, then unlocks them
+    private void unlockLegs(FlightLeg[] locked) {
+        publishSeats(locked);
+        for (int i = locked.length - 1; i >= 0; i--) {
+            locked[i].unlock();
+        }
+    }
+
+    // replaces the seat view with one holding the current seats of the legs, so readers see all the
+    // changes of a mutation or none of them. the caller holds the legs' locks, so no other writer can
+    // touch their entries: a writer that loses the race to swap the view rebuilds on the winner's version
+    private void publishSeats(FlightLeg[] locked) {
+        SeatSnapshot[] seats = new SeatSnapshot[locked.length];
+        for (int i = 0; i < locked.length; i++) {
+            seats[i] = locked[i].publish();
+        }
+        SeatView view;
+        SeatView next;
+        do {
+            view = seatView.get();
+            next = view;
+            for (int i = 0; i < locked.length; i++) {
+                if (next.get(locked[i].getId()) != seats[i]) {
+                    next = next.with(locked[i].getId(), seats[i]);
+                }
+            }
+        } while (next != view && !seatView.compareAndSet(view, next));
+    }
+
+    // the leg between two airports given by unique name, or null; no key string is built
+    private FlightLeg findLeg(String from, String to) {
+        Airport departure = airports.get(from);
+        int arrival = airports.idOf(to);
+        if (departure == null || arrival < 0) {
+            return null;
+        }
+        return departure.getDepartureTo(arrival);
+    }
+
+    // A* search over the leg graph; every airport is expanded at most once, so cycles cannot loop
+    private List<FlightLeg> searchRouteLegs(String from, String to) {
+        int start = airports.idOf(from);
+        int goal = airports.idOf(to);
+        if (start < 0 || goal < 0 || start == goal) {
+            return new ArrayList<>();
+        }
+        Airport target = airports.get(goal);
+
+        // id-indexed search state; airports registered after this point are not reachable yet
+        int n = airports.size();
+        double[] bestCost = new double[n];
+        Arrays.fill(bestCost, Double.POSITIVE_INFINITY);
+        FlightLeg[] reachedBy = new FlightLeg[n];
+        boolean[] settled = new boolean[n];
+        PriorityQueue<RouteNode> open = new PriorityQueue<>();
+        bestCost[start] = 0.0;
+        open.add(new RouteNode(start, 0.0, estimateCost(start, target)));
+
+        while (!open.isEmpty()) {
+            RouteNode node = open.poll();
+            if (settled[node.airport]) {
+                continue;
+            }
+            settled[node.airport] = true;
+            if (node.airport == goal) {
+                return buildPath(reachedBy, start, goal);
+            }
+            for (FlightLeg leg : airports.get(node.airport).getDepartures()) {
+                int next = leg.getToId();
+                if (next >= n || settled[next]) {
+                    continue;
+                }
+                double cost = node.cost + legCost(leg);
+                if (cost < bestCost[next]) {
+                    bestCost[next] = cost;
+                    reachedBy[next] = leg;
+                    open.add(new RouteNode(next, cost, cost + estimateCost(next, target)));
+                }
+            }
+        }
+
+        return new ArrayList<>();
+    }
+
+    private List<FlightLeg> buildPath(FlightLeg[] reachedBy, int start, int goal) {
+        LinkedList<FlightLeg> path = new LinkedList<>();
+        int current = goal;
+        while (current != start) {
+            FlightLeg leg = reachedBy[current];
+            path.addFirst(leg);
+            current = leg.getFromId();
+        }
+        return new ArrayList<>(path);
+    }
+
+    private double legCost(FlightLeg leg) {
+        if (routePreference == RoutePreference.SHORTEST_DISTANCE) {
+            return airports.get(leg.getFromId()).distanceTo(airports.get(leg.getToId()));
+        }
+        return 1.0;
+    }
+
+    // admissible lower bound on the remaining cost: straight-line distance, or zero when counting legs
+    private double estimateCost(int airport, Airport target) {
+        if (routePreference == RoutePreference.SHORTEST_DISTANCE) {
+            return airports.get(airport).distanceTo(target);
+        }
+        return 0.0;
+    }
+
+    // entry of the A* open set, ordered by estimated total cost
+    private static class RouteNode implements Comparable<RouteNode> {
+        private final int airport;
+        private final double cost;
+        private final double priority;
+
+        RouteNode(int airport, double cost, double priority) {
+            this.airport = airport;
+            this.cost = cost;
+            this.priority = priority;
+        }
+
+        @Override
+        public int compareTo(RouteNode other) {
+            int byPriority = Double.compare(priority, other.priority);
+            return byPriority != 0 ? byPriority : Integer.compare(airport, other.airport);
+        }
     }
 
-}
\ No newline at end of file
+}
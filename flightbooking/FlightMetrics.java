@@ -0,0 +1,150 @@
+package it.polito.flightbooking;
+
+import java.util.*;
+
+/**
+ * Snapshot of the operation metrics of a {@link FlightManager}, covering the time since metrics were last enabled.
+ * Operations are identified by their method name, e.g. "bookSeat".
+ */
+public final class FlightMetrics {
+    private final double elapsedSeconds;
+    private final Map<String, long[]> latencies = new LinkedHashMap<>();
+    private final Map<String, Map<FlightException.Reason, Long>> errors = new LinkedHashMap<>();
+    private final Map<Integer, Long> routeDepths = new TreeMap<>();
+    private final long routeSearches;
+    private final long routeCacheHits;
+    private final long routeRejections;
+    private final Map<String, Long> legBookings = new TreeMap<>();
+
+    FlightMetrics(MetricsRecorder.Window window, long now) {
+        this.elapsedSeconds = (now - window.startedAt) / 1e9;
+        for (Operation operation : Operation.values()) {
+            MetricsRecorder.OperationCounters counters = window.operations[operation.ordinal()];
+            latencies.put(operation.getMethodName(), counters.latencies.snapshot());
+            Map<FlightException.Reason, Long> byReason = new EnumMap<>(FlightException.Reason.class);
+            for (FlightException.Reason reason : FlightException.Reason.values()) {
+                long count = counters.errors.get(reason.ordinal());
+                if (count > 0) {
+                    byReason.put(reason, count);
+                }
+            }
+            errors.put(operation.getMethodName(), byReason);
+        }
+        for (int depth = 0; depth < window.routeDepths.length(); depth++) {
+            long count = window.routeDepths.get(depth);
+            if (count > 0) {
+                routeDepths.put(depth, count);
+            }
+        }
+        this.routeSearches = window.routeSearches.sum();
+        this.routeCacheHits = window.routeCacheHits.sum();
+        this.routeRejections = window.routeRejections.sum();
+        window.legBookings.forEach((leg, count) -> legBookings.put(leg, count.sum()));
+    }
+
+    /**
+     * @return the method names of the tracked operations
+     */
+    public Set<String> getOperations() {
+        return Collections.unmodifiableSet(latencies.keySet());
+    }
+
+    /**
+     * @return the number of calls of the operation, failed ones included
+     */
+    public long getCount(String operation) {
+        long total = 0;
+        for (long count : histogram(operation)) {
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * @return the number of calls of the operation that threw a {@link FlightException}
+     */
+    public long getErrorCount(String operation) {
+        long total = 0;
+        for (long count : getErrorCounts(operation).values()) {
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * @return the number of failed calls of the operation by {@link FlightException.Reason}; reasons that never occurred are omitted
+     */
+    public Map<FlightException.Reason, Long> getErrorCounts(String operation) {
+        Map<FlightException.Reason, Long> byReason = errors.get(operation);
+        if (byReason == null) {
+            throw new IllegalArgumentException("Unknown operation " + operation);
+        }
+        return Collections.unmodifiableMap(byReason);
+    }
+
+    /**
+     * @param percentile the percentile, between 0 and 100
+     * @return an upper bound, within 12.5%, of the given latency percentile of the operation in nanoseconds; 0 if it was never called
+     */
+    public long getLatencyPercentile(String operation, double percentile) {
+        return AtomicHistogram.percentile(histogram(operation), percentile);
+    }
+
+    /**
+     * @return the number of route lookups by number of legs of the route found (0 when the airports are not connected);
+     *         routes of {@value MetricsRecorder#MAX_ROUTE_DEPTH} legs or more are counted together
+     */
+    public Map<Integer, Long> getRouteDepths() {
+        return Collections.unmodifiableMap(routeDepths);
+    }
+
+    /**
+     * @return the number of route lookups that ran a graph search
+     */
+    public long getRouteSearches() {
+        return routeSearches;
+    }
+
+    /**
+     * @return the number of route lookups answered by the route cache
+     */
+    public long getRouteCacheHits() {
+        return routeCacheHits;
+    }
+
+    /**
+     * @return the number of route lookups rejected up front because the airports are not connected
+     */
+    public long getRouteRejections() {
+        return routeRejections;
+    }
+
+    /**
+     * @return the number of seats booked on each leg ("from;to"), legs without bookings omitted
+     */
+    public Map<String, Long> getLegBookings() {
+        return Collections.unmodifiableMap(legBookings);
+    }
+
+    /**
+     * @return the seats booked per second on the leg ("from;to")
+     */
+    public double getLegBookingRate(String leg) {
+        return elapsedSeconds > 0 ? legBookings.getOrDefault(leg, 0L) / elapsedSeconds : 0.0;
+    }
+
+    /**
+     * @return the length of the time window covered by the snapshot, in seconds
+     */
+    public double getElapsedSeconds() {
+        return elapsedSeconds;
+    }
+
+    private long[] histogram(String operation) {
+        long[] histogram = latencies.get(operation);
+        if (histogram == null) {
+            throw new IllegalArgumentException("Unknown operation " + operation);
+        }
+        return histogram;
+    }
+}
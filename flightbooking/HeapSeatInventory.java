@@ -0,0 +1,38 @@
+package it.polito.flightbooking;
+
+// seat inventory kept in a plain array on the heap (the default backend)
+class HeapSeatInventory implements SeatInventory {
+    static final HeapSeatInventory EMPTY = new HeapSeatInventory(0);
+
+    private final long[] words;
+    private int bookedCount;
+
+    HeapSeatInventory(int capacity) {
+        this.words = new long[(capacity + 63) >>> 6];
+    }
+
+    @Override
+    public int getWordCount() {
+        return words.length;
+    }
+
+    @Override
+    public long getWord(int index) {
+        return words[index];
+    }
+
+    @Override
+    public void setWord(int index, long value) {
+        words[index] = value;
+    }
+
+    @Override
+    public int getBookedCount() {
+        return bookedCount;
+    }
+
+    @Override
+    public void setBookedCount(int count) {
+        this.bookedCount = count;
+    }
+}
@@ -0,0 +1,68 @@
+package it.polito.flightbooking;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntFunction;
+
+// interning table that gives each name a dense int id (0, 1, 2, ...) and stores one value per id.
+// lookups by id are array reads; lookups by name are a single hash probe that does not allocate.
+class IdTable<T> {
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private volatile Object[] values = new Object[16];
+    private volatile int size;
+
+    // registers a new name, building its value from the assigned id; returns -1 if the name is taken
+    synchronized int add(String name, IntFunction<T> factory) {
+        if (ids.containsKey(name)) {
+            return -1;
+        }
+        int id = size;
+        if (id == values.length) {
+            values = Arrays.copyOf(values, id * 2);
+        }
+        values[id] = factory.apply(id);
+        size = id + 1;
+        // the id is published last, so a reader that finds it also sees the value
+        ids.put(name, id);
+        return id;
+    }
+
+    // id of the name, or -1 if unknown
+    int idOf(String name) {
+        Integer id = ids.get(name);
+        return id == null ? -1 : id;
+    }
+
+    @SuppressWarnings("unchecked")
+    T get(int id) {
+        return (T) values[id];
+    }
+
+    // value of the name, or null if unknown
+    T get(String name) {
+        int id = idOf(name);
+        return id < 0 ? null : get(id);
+    }
+
+    boolean contains(String name) {
+        return ids.containsKey(name);
+    }
+
+    int size() {
+        return size;
+    }
+
+    Collection<String> names() {
+        return ids.keySet();
+    }
+
+    // snapshot of the values in id order
+    List<T> values() {
+        int n = size;
+        List<T> result = new ArrayList<>(n);
+        for (int id = 0; id < n; id++) {
+            result.add(get(id));
+        }
+        return result;
+    }
+}
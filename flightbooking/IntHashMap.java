@@ -0,0 +1,156 @@
+package it.polito.flightbooking;
+
+import java.util.function.Consumer;
+
+// thread-safe map from int keys to objects, without boxing the keys.
+// entries live in open-addressing tables split into independently locked segments.
+class IntHashMap<V> {
+    private static final int SEGMENTS = 64;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    IntHashMap() {
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(int key) {
+        return (V) segmentFor(key).get(key);
+    }
+
+    boolean containsKey(int key) {
+        return get(key) != null;
+    }
+
+    // stores the value unless the key is present; returns the existing value, or null if stored
+    @SuppressWarnings("unchecked")
+    V putIfAbsent(int key, V value) {
+        return (V) segmentFor(key).putIfAbsent(key, value);
+    }
+
+    @SuppressWarnings("unchecked")
+    V remove(int key) {
+        return (V) segmentFor(key).remove(key, null);
+    }
+
+    // removes the key only if it maps to the given value
+    boolean remove(int key, V value) {
+        return segmentFor(key).remove(key, value) != null;
+    }
+
+    // visits every value, one segment at a time
+    @SuppressWarnings("unchecked")
+    void forEach(Consumer<? super V> action) {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                for (Object value : segment.values) {
+                    if (value != null) {
+                        action.accept((V) value);
+                    }
+                }
+            }
+        }
+    }
+
+    int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private Segment segmentFor(int key) {
+        return segments[mix(key) >>> 26];
+    }
+
+    // linear-probing table; a null value marks an empty slot
+    private static class Segment {
+        private int[] keys = new int[8];
+        private Object[] values = new Object[8];
+        private int size;
+
+        synchronized Object get(int key) {
+            int mask = keys.length - 1;
+            for (int i = mix(key) & mask; values[i] != null; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    return values[i];
+                }
+            }
+            return null;
+        }
+
+        synchronized Object putIfAbsent(int key, Object value) {
+            int mask = keys.length - 1;
+            int i = mix(key) & mask;
+            for (; values[i] != null; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    return values[i];
+                }
+            }
+            keys[i] = key;
+            values[i] = value;
+            if (++size * 2 > keys.length) {
+                resize();
+            }
+            return null;
+        }
+
+        // removes the key (only if mapped to expected, when expected is not null); returns the removed value
+        synchronized Object remove(int key, Object expected) {
+            int mask = keys.length - 1;
+            int i = mix(key) & mask;
+            for (; values[i] != null; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    break;
+                }
+            }
+            Object removed = values[i];
+            if (removed == null || (expected != null && removed != expected)) {
+                return null;
+            }
+            values[i] = null;
+            size--;
+            // shift back the following entries of the probe run so lookups still find them
+            for (int j = (i + 1) & mask; values[j] != null; j = (j + 1) & mask) {
+                int home = mix(keys[j]) & mask;
+                if (((j - home) & mask) >= ((j - i) & mask)) {
+                    keys[i] = keys[j];
+                    values[i] = values[j];
+                    values[j] = null;
+                    i = j;
+                }
+            }
+            return removed;
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        private void resize() {
+            int[] oldKeys = keys;
+            Object[] oldValues = values;
+            keys = new int[oldKeys.length * 2];
+            values = new Object[oldValues.length * 2];
+            int mask = keys.length - 1;
+            for (int j = 0; j < oldKeys.length; j++) {
+                if (oldValues[j] != null) {
+                    int i = mix(oldKeys[j]) & mask;
+                    while (values[i] != null) {
+                        i = (i + 1) & mask;
+                    }
+                    keys[i] = oldKeys[j];
+                    values[i] = oldValues[j];
+                }
+            }
+        }
+    }
+}
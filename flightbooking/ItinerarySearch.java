@@ -0,0 +1,223 @@
+package it.polito.flightbooking;
+
+import java.util.*;
+import java.util.function.Predicate;
+import java.util.function.ToDoubleFunction;
+
+// k cheapest loopless itineraries between two airports with a bound on the number of legs (Yen's algorithm).
+// legs rejected by the usable predicate are pruned while searching, so full or unassigned legs
+// are never expanded; whole itineraries rejected by the accept predicate are skipped in the result
+// but still seed the next deviations, so later alternatives are not lost.
+class ItinerarySearch {
+    private final IdTable<Airport> airports;
+    private final ToDoubleFunction<FlightLeg> legCost;
+    private final Predicate<FlightLeg> usable;
+    // buffers indexed by airport id, allocated once per query
+    private double[] bestCost;
+    private FlightLeg[] roundLeg;
+    private double[] roundCost;
+    private int[] touched;
+    private int touchedCount;
+
+    ItinerarySearch(IdTable<Airport> airports, ToDoubleFunction<FlightLeg> legCost, Predicate<FlightLeg> usable) {
+        this.airports = airports;
+        this.legCost = legCost;
+        this.usable = usable;
+    }
+
+    List<List<FlightLeg>> find(int start, int goal, int maxLegs, int k, Predicate<List<FlightLeg>> accept) {
+        List<List<FlightLeg>> result = new ArrayList<>();
+        int n = airports.size();
+        // a loopless itinerary has at most one leg less than there are airports
+        maxLegs = Math.min(maxLegs, n - 1);
+        if (k <= 0 || maxLegs <= 0 || start == goal) {
+            return result;
+        }
+        bestCost = new double[n];
+        Arrays.fill(bestCost, Double.POSITIVE_INFINITY);
+        roundLeg = new FlightLeg[n];
+        roundCost = new double[n];
+        touched = new int[16];
+        List<Path> found = new ArrayList<>();
+        List<Path> accepted = new ArrayList<>();
+        PriorityQueue<Path> candidates = new PriorityQueue<>();
+        Set<List<FlightLeg>> seen = new HashSet<>();
+
+        List<FlightLeg> first = shortestPath(start, goal, maxLegs, new boolean[n], Collections.emptySet());
+        if (first == null) {
+            return result;
+        }
+        candidates.add(new Path(first, cost(first)));
+        seen.add(first);
+
+        // candidates come out in order of cost, but one tied with an emitted path may be discovered only later:
+        // after k itineraries keep going through the ties of the last one, then sort them into place
+        while (!candidates.isEmpty()
+                && (accepted.size() < k || candidates.peek().cost <= accepted.get(accepted.size() - 1).cost)) {
+            Path path = candidates.poll();
+            found.add(path);
+            if (accept.test(path.legs)) {
+                accepted.add(path);
+            }
+            // deviate from every airport of the path but the last
+            boolean[] blockedAirports = new boolean[n];
+            for (int i = 0; i < path.legs.size(); i++) {
+                List<FlightLeg> root = path.legs.subList(0, i);
+                int spur = path.legs.get(i).getFromId();
+                Set<FlightLeg> blockedLegs = new HashSet<>();
+                for (Path other : found) {
+                    if (other.legs.size() > i && other.legs.subList(0, i).equals(root)) {
+                        blockedLegs.add(other.legs.get(i));
+                    }
+                }
+                List<FlightLeg> spurPath = shortestPath(spur, goal, maxLegs - i, blockedAirports, blockedLegs);
+                if (spurPath != null) {
+                    List<FlightLeg> candidate = new ArrayList<>(root);
+                    candidate.addAll(spurPath);
+                    if (seen.add(candidate)) {
+                        candidates.add(new Path(candidate, cost(candidate)));
+                    }
+                }
+                // the root path's airports cannot be revisited by deviations further along
+                blockedAirports[spur] = true;
+            }
+        }
+        Collections.sort(accepted);
+        for (int i = 0; i < accepted.size() && i < k; i++) {
+            result.add(accepted.get(i).legs);
+        }
+        return result;
+    }
+
+    // cheapest path of at most maxLegs usable legs avoiding the blocked airports and legs, or null.
+    // bounded Bellman-Ford: round h settles the cheapest paths of at most h legs, touching only the frontier.
+    // the per-airport buffers are shared by all the spur searches of a query and reset through the touched
+    // list; each round keeps only the airports it improved, for walking the path back
+    private List<FlightLeg> shortestPath(int start, int goal, int maxLegs, boolean[] blockedAirports,
+            Set<FlightLeg> blockedLegs) {
+        List<int[]> roundAirports = new ArrayList<>();
+        List<FlightLeg[]> roundLegs = new ArrayList<>();
+        touchedCount = 0;
+        touch(start);
+        bestCost[start] = 0.0;
+        int[] frontier = {start};
+        int frontierSize = 1;
+        double[] frontierCost = {0.0};
+        for (int h = 1; h <= maxLegs && frontierSize > 0; h++) {
+            int[] next = new int[Math.min(blockedAirports.length, 16)];
+            int nextSize = 0;
+            for (int f = 0; f < frontierSize; f++) {
+                int airport = frontier[f];
+                for (FlightLeg leg : airports.get(airport).getDepartures()) {
+                    int to = leg.getToId();
+                    if (to >= blockedAirports.length || to == start || blockedAirports[to] || blockedLegs.contains(leg)
+                            || !usable.test(leg)) {
+                        continue;
+                    }
+                    double cost = frontierCost[f] + legCost.applyAsDouble(leg);
+                    // strict improvement only: a path that loops back is never cheaper than the one without the loop
+                    if (cost < bestCost[to]) {
+                        if (roundLeg[to] == null) {
+                            if (nextSize == next.length) {
+                                next = Arrays.copyOf(next, Math.min(blockedAirports.length, next.length * 2));
+                            }
+                            next[nextSize++] = to;
+                        }
+                        if (bestCost[to] == Double.POSITIVE_INFINITY) {
+                            touch(to);
+                        }
+                        bestCost[to] = cost;
+                        roundLeg[to] = leg;
+                        roundCost[to] = cost;
+                    }
+                }
+            }
+            FlightLeg[] legs = new FlightLeg[nextSize];
+            frontierCost = new double[nextSize];
+            for (int f = 0; f < nextSize; f++) {
+                legs[f] = roundLeg[next[f]];
+                frontierCost[f] = roundCost[next[f]];
+                roundLeg[next[f]] = null;
+            }
+            roundAirports.add(Arrays.copyOf(next, nextSize));
+            roundLegs.add(legs);
+            frontier = next;
+            frontierSize = nextSize;
+        }
+        boolean reached = bestCost[goal] != Double.POSITIVE_INFINITY;
+        for (int i = 0; i < touchedCount; i++) {
+            bestCost[touched[i]] = Double.POSITIVE_INFINITY;
+        }
+        return reached ? buildPath(roundAirports, roundLegs, start, goal) : null;
+    }
+
+    private void touch(int airport) {
+        if (touchedCount == touched.length) {
+            touched = Arrays.copyOf(touched, touchedCount * 2);
+        }
+        touched[touchedCount++] = airport;
+    }
+
+    // walks back from the last round that improved the goal; round h reached its airport from round h - 1
+    private static List<FlightLeg> buildPath(List<int[]> roundAirports, List<FlightLeg[]> roundLegs, int start,
+            int goal) {
+        int h = roundAirports.size() - 1;
+        while (indexOf(roundAirports.get(h), goal) < 0) {
+            h--;
+        }
+        LinkedList<FlightLeg> path = new LinkedList<>();
+        int current = goal;
+        for (; current != start; h--) {
+            FlightLeg leg = roundLegs.get(h)[indexOf(roundAirports.get(h), current)];
+            path.addFirst(leg);
+            current = leg.getFromId();
+        }
+        return new ArrayList<>(path);
+    }
+
+    private static int indexOf(int[] values, int value) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private double cost(List<FlightLeg> legs) {
+        double total = 0.0;
+        for (FlightLeg leg : legs) {
+            total += legCost.applyAsDouble(leg);
+        }
+        return total;
+    }
+
+    // candidate itinerary, ordered by cost, then by number of legs, then by leg keys
+    private static class Path implements Comparable<Path> {
+        private final List<FlightLeg> legs;
+        private final double cost;
+
+        Path(List<FlightLeg> legs, double cost) {
+            this.legs = legs;
+            this.cost = cost;
+        }
+
+        @Override
+        public int compareTo(Path other) {
+            int byCost = Double.compare(cost, other.cost);
+            if (byCost != 0) {
+                return byCost;
+            }
+            if (legs.size() != other.legs.size()) {
+                return Integer.compare(legs.size(), other.legs.size());
+            }
+            for (int i = 0; i < legs.size(); i++) {
+                int byKey = legs.get(i).getKey().compareTo(other.legs.get(i).getKey());
+                if (byKey != 0) {
+                    return byKey;
+                }
+            }
+            return 0;
+        }
+    }
+}
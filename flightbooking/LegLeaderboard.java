@@ -0,0 +1,59 @@
+package it.polito.flightbooking;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+// legs ranked by number of bookings (descending), ties broken by leg key in alphabetical order.
+// updates for the same leg must be serialized by the caller (FlightManager holds the leg lock).
+class LegLeaderboard {
+    private final Map<String, Integer> counts = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListSet<Rank> ranking = new ConcurrentSkipListSet<>();
+
+    // records the current number of bookings of a leg
+    void update(String legKey, int bookings) {
+        Integer previous = counts.put(legKey, bookings);
+        if (previous != null && previous == bookings) {
+            return;
+        }
+        // the new rank is inserted before the old one is removed, so readers never miss the leg
+        if (bookings > 0) {
+            ranking.add(new Rank(legKey, bookings));
+        }
+        if (previous != null && previous > 0) {
+            ranking.remove(new Rank(legKey, previous));
+        }
+    }
+
+    // the leg with the most bookings, or null if nothing is booked
+    String top() {
+        Iterator<Rank> it = ranking.iterator();
+        return it.hasNext() ? it.next().legKey : null;
+    }
+
+    // the k legs with the most bookings, best first
+    List<String> top(int k) {
+        Set<String> result = new LinkedHashSet<>();
+        Iterator<Rank> it = ranking.iterator();
+        while (result.size() < k && it.hasNext()) {
+            result.add(it.next().legKey);
+        }
+        return new ArrayList<>(result);
+    }
+
+    private static class Rank implements Comparable<Rank> {
+        private final String legKey;
+        private final int bookings;
+
+        Rank(String legKey, int bookings) {
+            this.legKey = legKey;
+            this.bookings = bookings;
+        }
+
+        @Override
+        public int compareTo(Rank other) {
+            int byBookings = Integer.compare(other.bookings, bookings);
+            return byBookings != 0 ? byBookings : legKey.compareTo(other.legKey);
+        }
+    }
+}
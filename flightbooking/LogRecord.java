@@ -0,0 +1,143 @@
+package it.polito.flightbooking;
+
+import java.io.*;
+import java.util.List;
+
+// binary encoding of the FlightManager mutations stored in the write-ahead log and in snapshots.
+// a snapshot is the shortest sequence of these records that rebuilds the current state.
+final class LogRecord {
+    private static final byte AIRPORT = 1;
+    private static final byte ROUTE = 2;
+    private static final byte PLANE = 3;
+    private static final byte ASSIGNMENT = 4;
+    private static final byte BOOKING = 5;
+    private static final byte CANCELLATION = 6;
+
+    private LogRecord() {
+    }
+
+    static byte[] airport(String airportName, String city, double latitude, double longitude) throws FlightException {
+        return encode(out -> {
+            out.writeByte(AIRPORT);
+            out.writeUTF(airportName);
+            out.writeUTF(city);
+            out.writeDouble(latitude);
+            out.writeDouble(longitude);
+        });
+    }
+
+    static byte[] route(String... connections) throws FlightException {
+        return encode(out -> {
+            out.writeByte(ROUTE);
+            out.writeInt(connections.length);
+            for (String connection : connections) {
+                out.writeUTF(connection);
+            }
+        });
+    }
+
+    static byte[] plane(String planeId, int capacity) throws FlightException {
+        return encode(out -> {
+            out.writeByte(PLANE);
+            out.writeUTF(planeId);
+            out.writeInt(capacity);
+        });
+    }
+
+    static byte[] assignment(String from, String to, String planeId) throws FlightException {
+        return encode(out -> {
+            out.writeByte(ASSIGNMENT);
+            out.writeUTF(from);
+            out.writeUTF(to);
+            out.writeUTF(planeId);
+        });
+    }
+
+    // the legs are stored by id, so replay does not depend on how routes would be resolved now
+    static byte[] booking(Booking booking) throws FlightException {
+        return encode(out -> {
+            out.writeByte(BOOKING);
+            out.writeInt(booking.getCode());
+            out.writeUTF(booking.getPassengerId());
+            out.writeUTF(booking.getFrom());
+            out.writeUTF(booking.getTo());
+            out.writeInt(booking.getSeatNumber());
+            List<FlightLeg> legs = booking.getFlightLegs();
+            out.writeInt(legs.size());
+            for (FlightLeg leg : legs) {
+                out.writeInt(leg.getId());
+            }
+        });
+    }
+
+    static byte[] cancellation(int code) throws FlightException {
+        return encode(out -> {
+            out.writeByte(CANCELLATION);
+            out.writeInt(code);
+        });
+    }
+
+    // re-executes a record against a manager that is not logging
+    static void apply(byte[] record, FlightManager fm) throws FlightException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        try {
+            byte type = in.readByte();
+            switch (type) {
+                case AIRPORT:
+                    String airportName = in.readUTF();
+                    String city = in.readUTF();
+                    fm.addAirport(airportName, city, in.readDouble(), in.readDouble());
+                    break;
+                case ROUTE:
+                    String[] connections = new String[in.readInt()];
+                    for (int i = 0; i < connections.length; i++) {
+                        connections[i] = in.readUTF();
+                    }
+                    fm.defineRoute(connections);
+                    break;
+                case PLANE:
+                    fm.addPlane(in.readUTF(), in.readInt());
+                    break;
+                case ASSIGNMENT:
+                    fm.assignPlaneToLeg(in.readUTF(), in.readUTF(), in.readUTF());
+                    break;
+                case BOOKING:
+                    int code = in.readInt();
+                    String passengerId = in.readUTF();
+                    String from = in.readUTF();
+                    String to = in.readUTF();
+                    int seatNumber = in.readInt();
+                    int[] legIds = new int[in.readInt()];
+                    for (int i = 0; i < legIds.length; i++) {
+                        legIds[i] = in.readInt();
+                    }
+                    fm.restoreBooking(code, passengerId, from, to, seatNumber, legIds);
+                    break;
+                case CANCELLATION:
+                    fm.cancelBooking(BookingCode.format(in.readInt()));
+                    break;
+                default:
+                    throw new FlightException(FlightException.Reason.STORAGE, "Unknown log record type " + type);
+            }
+        } catch (IOException e) {
+            throw new FlightException("Malformed log record", e);
+        }
+    }
+
+    private interface Writer {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    // a string longer than 65535 bytes in modified UTF-8 cannot be stored, so the change is rejected
+    private static byte[] encode(Writer writer) throws FlightException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            writer.write(out);
+        } catch (UTFDataFormatException e) {
+            throw new FlightException(FlightException.Reason.INVALID_ARGUMENT, "A name or id is too long to be stored", e);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,108 @@
+package it.polito.flightbooking;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+// working seat inventories of all the legs in one memory-mapped file, outside the garbage-collected heap.
+// the lock-free readers still get heap copies of the bitmaps (see SeatSnapshot), so the store does not
+// shrink the heap, and its content is overwritten on open rather than reused after a restart.
+// every leg owns a fixed-size slot at offset (legId * slotSize): an int capacity, an int booked count
+// and enough 64-bit words for maxSeats seats. the file is mapped in chunks of SLOTS_PER_CHUNK slots
+// because a single mapping cannot exceed 2 GB.
+class MappedSeatStore implements Closeable {
+    private static final int SLOTS_PER_CHUNK = 1 << 12;
+    private static final int HEADER_SIZE = 8;
+
+    private final FileChannel channel;
+    private final int maxSeats;
+    private final int slotSize;
+    private final List<MappedByteBuffer> chunks = new ArrayList<>();
+
+    MappedSeatStore(Path file, int maxSeats) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        this.maxSeats = maxSeats;
+        this.slotSize = HEADER_SIZE + ((maxSeats + 63) >>> 6) * Long.BYTES;
+    }
+
+    int getMaxSeats() {
+        return maxSeats;
+    }
+
+    // returns the emptied slot of the given leg, sized for the given capacity
+    synchronized SeatInventory slot(int legId, int capacity) throws IOException {
+        if (capacity > maxSeats) {
+            throw new IllegalArgumentException("Capacity " + capacity + " exceeds the store limit of " + maxSeats);
+        }
+        int chunk = legId / SLOTS_PER_CHUNK;
+        while (chunks.size() <= chunk) {
+            long position = (long) chunks.size() * SLOTS_PER_CHUNK * slotSize;
+            chunks.add(channel.map(FileChannel.MapMode.READ_WRITE, position, (long) SLOTS_PER_CHUNK * slotSize));
+        }
+        Slot slot = new Slot(chunks.get(chunk), (legId % SLOTS_PER_CHUNK) * slotSize, (capacity + 63) >>> 6);
+        slot.buffer.putInt(slot.base, capacity);
+        slot.setBookedCount(0);
+        for (int w = 0; w < slot.words; w++) {
+            slot.setWord(w, 0);
+        }
+        return slot;
+    }
+
+    // writes the dirty pages back to the file
+    synchronized void force() {
+        for (MappedByteBuffer chunk : chunks) {
+            chunk.force();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        force();
+        channel.close();
+    }
+
+    // view over one leg's slot; absolute accessors only, so views of the same chunk never share a position
+    private static class Slot implements SeatInventory {
+        private final ByteBuffer buffer;
+        private final int base;
+        private final int words;
+
+        Slot(ByteBuffer buffer, int base, int words) {
+            this.buffer = buffer;
+            this.base = base;
+            this.words = words;
+        }
+
+        @Override
+        public int getWordCount() {
+            return words;
+        }
+
+        @Override
+        public long getWord(int index) {
+            return buffer.getLong(base + HEADER_SIZE + (index << 3));
+        }
+
+        @Override
+        public void setWord(int index, long value) {
+            buffer.putLong(base + HEADER_SIZE + (index << 3), value);
+        }
+
+        @Override
+        public int getBookedCount() {
+            return buffer.getInt(base + 4);
+        }
+
+        @Override
+        public void setBookedCount(int count) {
+            buffer.putInt(base + 4, count);
+        }
+    }
+}
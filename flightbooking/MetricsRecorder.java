@@ -0,0 +1,107 @@
+package it.polito.flightbooking;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// live counters behind FlightManager.getMetrics().
+// while disabled every hook is a single volatile read and returns; start() does not even read the clock.
+// enabling starts a new window: all the counters are replaced, so a snapshot covers one window only.
+class MetricsRecorder {
+    // routes of this many legs or more share the last depth bucket
+    static final int MAX_ROUTE_DEPTH = 16;
+
+    private volatile boolean enabled;
+    private volatile Window window = new Window();
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    synchronized void setEnabled(boolean enabled) {
+        if (enabled && !this.enabled) {
+            window = new Window();
+        }
+        this.enabled = enabled;
+    }
+
+    // start time of an operation, or 0 when disabled
+    long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    void succeeded(Operation operation, long started) {
+        if (started != 0) {
+            window.operations[operation.ordinal()].latencies.record(System.nanoTime() - started);
+        }
+    }
+
+    void failed(Operation operation, long started, FlightException e) {
+        if (started != 0) {
+            OperationCounters counters = window.operations[operation.ordinal()];
+            counters.latencies.record(System.nanoTime() - started);
+            counters.errors.incrementAndGet(e.getReason().ordinal());
+        }
+    }
+
+    // a route answered from the cache (legs is 0 for a cached "no route")
+    void routeCached(int legs) {
+        if (enabled) {
+            Window current = window;
+            current.routeDepths.incrementAndGet(Math.min(legs, MAX_ROUTE_DEPTH));
+            current.routeCacheHits.increment();
+        }
+    }
+
+    // a route found by a graph search
+    void routeSearched(int legs) {
+        if (enabled) {
+            Window current = window;
+            current.routeDepths.incrementAndGet(Math.min(legs, MAX_ROUTE_DEPTH));
+            current.routeSearches.increment();
+        }
+    }
+
+    // a pair rejected by the reachability index, with no search
+    void routeRejected() {
+        if (enabled) {
+            Window current = window;
+            current.routeDepths.incrementAndGet(0);
+            current.routeRejections.increment();
+        }
+    }
+
+    void legBooked(FlightLeg leg) {
+        if (enabled) {
+            window.legBookings.computeIfAbsent(leg.getKey(), key -> new LongAdder()).increment();
+        }
+    }
+
+    FlightMetrics snapshot() {
+        Window current = window;
+        return new FlightMetrics(current, System.nanoTime());
+    }
+
+    static class Window {
+        final long startedAt = System.nanoTime();
+        final OperationCounters[] operations = new OperationCounters[Operation.values().length];
+        final AtomicLongArray routeDepths = new AtomicLongArray(MAX_ROUTE_DEPTH + 1);
+        final LongAdder routeSearches = new LongAdder();
+        final LongAdder routeCacheHits = new LongAdder();
+        final LongAdder routeRejections = new LongAdder();
+        final Map<String, LongAdder> legBookings = new ConcurrentHashMap<>();
+
+        Window() {
+            for (int i = 0; i < operations.length; i++) {
+                operations[i] = new OperationCounters();
+            }
+        }
+    }
+
+    // every call is in the histogram, failed ones are also counted by reason
+    static class OperationCounters {
+        final AtomicHistogram latencies = new AtomicHistogram();
+        final AtomicLongArray errors = new AtomicLongArray(FlightException.Reason.values().length);
+    }
+}
@@ -0,0 +1,26 @@
+package it.polito.flightbooking;
+
+// FlightManager operations tracked by the metrics, named after their methods
+enum Operation {
+    FIND_AVAILABLE_SEATS("findAvailableSeats"),
+    FIND_ITINERARIES("findItineraries"),
+    FIND_CONTIGUOUS_SEATS("findContiguousSeats"),
+    BOOK_SEAT("bookSeat"),
+    BOOK_ANY_SEAT("bookAnySeat"),
+    BOOK_SEATS("bookSeats"),
+    BOOK_CONTIGUOUS_SEATS("bookContiguousSeats"),
+    CANCEL_BOOKING("cancelBooking"),
+    LIST_BOOKINGS_FOR_LEG("listBookingsForLeg"),
+    OCCUPATION_RATE("occupationRate"),
+    MOST_POPULAR_LEG("mostPopularLeg");
+
+    private final String methodName;
+
+    Operation(String methodName) {
+        this.methodName = methodName;
+    }
+
+    String getMethodName() {
+        return methodName;
+    }
+}
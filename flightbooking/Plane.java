@@ -4,10 +4,16 @@ package it.polito.flightbooking;
 //  Represents a plane in the flight booking system.
 
 public class Plane {
+    private final int index;
     private String id;
     private int capacity;
 
     public Plane(String id, int capacity) {
+        this(-1, id, capacity);
+    }
+
+    public Plane(int index, String id, int capacity) {
+        this.index = index;
         this.id = id;
         this.capacity = capacity;
     }
@@ -17,6 +23,11 @@ public class Plane {
         return id;
     }
 
+    // dense index assigned by FlightManager, or -1 for an unregistered plane
+    public int getIndex() {
+        return index;
+    }
+
     public int getCapacity() {
         return capacity;
     }
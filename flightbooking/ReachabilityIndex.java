@@ -0,0 +1,183 @@
+package it.polito.flightbooking;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// transitive closure of the leg graph over its strongly connected components: every airport points to
+// the representative of its component, and each component that has departures owns one bitset row with
+// bit t set when airport t can be reached. all the airports of a hub network collapse into a few
+// components, so an update touches one row per component instead of one per airport.
+// adding a leg u -> v ORs (row(v) + {v}) minus row(u) into every row that reaches u (those rows already
+// hold row(u)); when v also reaches u the components on the new cycle are merged, the smaller ones
+// relabelled into the largest. a leg between airports that are already connected costs one lookup.
+// rows only ever gain bits and are updated in place with atomic word writes, so readers never lock.
+// the row of a component retired by a merge stays in the table, complete as of the merge: a reader that
+// loaded the old representative just before the relabelling still finds a row that answers correctly.
+class ReachabilityIndex {
+    private volatile Table table = new Table(64);
+    // writer side: representatives of the components that own a row, and the members of every component
+    private int[] rowOwners = new int[16];
+    private int rowOwnerCount;
+    private final Map<Integer, List<Integer>> members = new HashMap<>();
+
+    boolean reaches(int from, int to) {
+        Table current = table;
+        if (from >= current.capacity || to >= current.capacity) {
+            return false;
+        }
+        AtomicLongArray row = current.rows.get(current.representative.get(from));
+        return row != null && (row.get(to >>> 6) & (1L << to)) != 0;
+    }
+
+    synchronized void addLeg(int from, int to) {
+        if (reaches(from, to)) {
+            return;
+        }
+        ensureCapacity(Math.max(from, to) + 1);
+        Table current = table;
+        int words = current.capacity >>> 6;
+        int fromComponent = current.representative.get(from);
+        int toComponent = current.representative.get(to);
+        AtomicLongArray departure = current.rows.get(fromComponent);
+        AtomicLongArray arrival = current.rows.get(toComponent);
+
+        if (departure == null) {
+            departure = new AtomicLongArray(words);
+            current.rows.set(fromComponent, departure);
+            if (rowOwnerCount == rowOwners.length) {
+                rowOwners = Arrays.copyOf(rowOwners, rowOwnerCount * 2);
+            }
+            rowOwners[rowOwnerCount++] = fromComponent;
+        }
+
+        // the only bits any row can gain
+        long[] delta = new long[words];
+        int[] changed = new int[words];
+        int changedCount = 0;
+        for (int w = 0; w < words; w++) {
+            long bits = arrival == null ? 0 : arrival.get(w);
+            if (w == to >>> 6) {
+                bits |= 1L << to;
+            }
+            delta[w] = bits & ~departure.get(w);
+            if (delta[w] != 0) {
+                changed[changedCount++] = w;
+            }
+        }
+
+        // the components on a new cycle: reached from v and reaching u (evaluated before any row changes)
+        List<Integer> cycle = new ArrayList<>();
+        if (reaches(to, from)) {
+            for (int i = 0; i < rowOwnerCount; i++) {
+                int component = rowOwners[i];
+                boolean reachesFrom = component == fromComponent || rowHas(current, component, from);
+                if (reachesFrom && (component == toComponent || rowHas(current, toComponent, component))) {
+                    cycle.add(component);
+                }
+            }
+        }
+
+        for (int i = 0; i < rowOwnerCount; i++) {
+            int component = rowOwners[i];
+            AtomicLongArray row = current.rows.get(component);
+            if (component != fromComponent && (row.get(from >>> 6) & (1L << from)) == 0) {
+                continue;
+            }
+            for (int c = 0; c < changedCount; c++) {
+                int w = changed[c];
+                long old = row.get(w);
+                if ((old | delta[w]) != old) {
+                    row.set(w, old | delta[w]);
+                }
+            }
+        }
+        if (cycle.size() > 1) {
+            merge(current, cycle);
+        }
+    }
+
+    private static boolean rowHas(Table current, int component, int airport) {
+        AtomicLongArray row = current.rows.get(component);
+        return row != null && (row.get(airport >>> 6) & (1L << airport)) != 0;
+    }
+
+    // every component of the cycle reaches u and so already holds the full merged row; the survivor is
+    // the largest component and only the others' members are relabelled. the others' rows are retired,
+    // not cleared, for the readers still holding their old representative
+    private void merge(Table current, List<Integer> cycle) {
+        int survivor = cycle.get(0);
+        for (int component : cycle) {
+            if (membersOf(component).size() > membersOf(survivor).size()) {
+                survivor = component;
+            }
+        }
+        List<Integer> survivorMembers = membersOf(survivor);
+        Set<Integer> retired = new HashSet<>();
+        for (int component : cycle) {
+            if (component == survivor) {
+                continue;
+            }
+            for (int member : membersOf(component)) {
+                current.representative.set(member, survivor);
+                survivorMembers.add(member);
+            }
+            members.remove(component);
+            retired.add(component);
+        }
+        // drop the retired rows from the owners, keeping the others in place
+        int kept = 0;
+        for (int i = 0; i < rowOwnerCount; i++) {
+            if (!retired.contains(rowOwners[i])) {
+                rowOwners[kept++] = rowOwners[i];
+            }
+        }
+        rowOwnerCount = kept;
+    }
+
+    private List<Integer> membersOf(int component) {
+        return members.computeIfAbsent(component, c -> new ArrayList<>(Collections.singletonList(c)));
+    }
+
+    // grows the table to the next power of two airports; the owned rows are copied, then the new table
+    // is published. retired rows are left behind: only readers of the old table can still reach them
+    private void ensureCapacity(int airports) {
+        Table current = table;
+        if (airports <= current.capacity) {
+            return;
+        }
+        int capacity = current.capacity;
+        while (capacity < airports) {
+            capacity *= 2;
+        }
+        Table grown = new Table(capacity);
+        for (int x = 0; x < current.capacity; x++) {
+            grown.representative.set(x, current.representative.get(x));
+        }
+        for (int i = 0; i < rowOwnerCount; i++) {
+            AtomicLongArray row = current.rows.get(rowOwners[i]);
+            AtomicLongArray copy = new AtomicLongArray(capacity >>> 6);
+            for (int w = 0; w < row.length(); w++) {
+                copy.set(w, row.get(w));
+            }
+            grown.rows.set(rowOwners[i], copy);
+        }
+        table = grown;
+    }
+
+    private static class Table {
+        private final int capacity;
+        private final AtomicIntegerArray representative;
+        private final AtomicReferenceArray<AtomicLongArray> rows;
+
+        Table(int capacity) {
+            this.capacity = capacity;
+            this.representative = new AtomicIntegerArray(capacity);
+            for (int x = 0; x < capacity; x++) {
+                representative.set(x, x);
+            }
+            this.rows = new AtomicReferenceArray<>(capacity);
+        }
+    }
+}
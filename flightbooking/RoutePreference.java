@@ -0,0 +1,9 @@
+package it.polito.flightbooking;
+
+// criterion used by FlightManager to pick an itinerary when several routings exist.
+public enum RoutePreference {
+    // the itinerary with the smallest number of legs
+    FEWEST_LEGS,
+    // the itinerary with the shortest total great-circle distance between airports
+    SHORTEST_DISTANCE
+}
@@ -0,0 +1,22 @@
+package it.polito.flightbooking;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+// JDK Flight Recorder event for every route search that misses the route cache
+@Name("it.polito.flightbooking.RouteResolution")
+@Label("Route Resolution")
+@Category("Flight Booking")
+class RouteResolutionEvent extends Event {
+    @Label("From")
+    String from;
+
+    @Label("To")
+    String to;
+
+    // number of legs of the route found, 0 when the airports are not connected
+    @Label("Legs")
+    int legs;
+}
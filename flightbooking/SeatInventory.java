@@ -0,0 +1,16 @@
+package it.polito.flightbooking;
+
+// seat bitmap and booked-seat counter of one leg: seat n is bit (n - 1) of the words, a set bit means booked.
+// implementations are not thread-safe, callers hold the owning leg's lock.
+interface SeatInventory {
+
+    int getWordCount();
+
+    long getWord(int index);
+
+    void setWord(int index, long value);
+
+    int getBookedCount();
+
+    void setBookedCount(int count);
+}
@@ -0,0 +1,46 @@
+package it.polito.flightbooking;
+
+import java.util.BitSet;
+
+/**
+ * Chooses the seat to book among the seats free on every leg of a journey,
+ * for {@link FlightManager#bookAnySeat}.
+ */
+@FunctionalInterface
+public interface SeatPolicy {
+
+    /**
+     * Picks a seat.
+     * 
+     * @param freeSeats the free seats: bit n is set when seat n is free on the whole journey
+     * @return the chosen seat number, or 0 if none of the free seats is acceptable
+     */
+    int choose(BitSet freeSeats);
+
+    /**
+     * Always the free seat with the lowest number.
+     */
+    SeatPolicy LOWEST_NUMBER = freeSeats -> Math.max(freeSeats.nextSetBit(1), 0);
+
+    /**
+     * Prefers window seats (first and last seat of each row), falling back to the lowest free seat.
+     * 
+     * @param seatsPerRow the number of seats in a row of the cabin
+     * @return the policy
+     * @throws IllegalArgumentException if seatsPerRow is not positive
+     */
+    static SeatPolicy window(int seatsPerRow) {
+        if (seatsPerRow <= 0) {
+            throw new IllegalArgumentException("The number of seats per row must be positive");
+        }
+        return freeSeats -> {
+            for (int seat = freeSeats.nextSetBit(1); seat > 0; seat = freeSeats.nextSetBit(seat + 1)) {
+                int position = (seat - 1) % seatsPerRow;
+                if (position == 0 || position == seatsPerRow - 1) {
+                    return seat;
+                }
+            }
+            return LOWEST_NUMBER.choose(freeSeats);
+        };
+    }
+}
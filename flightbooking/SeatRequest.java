@@ -0,0 +1,26 @@
+package it.polito.flightbooking;
+
+// one passenger and seat of a group booking made with FlightManager.bookSeats.
+public class SeatRequest {
+    private String passengerId;
+    private int seatNumber;
+
+    public SeatRequest(String passengerId, int seatNumber) {
+        this.passengerId = passengerId;
+        this.seatNumber = seatNumber;
+    }
+
+    // Getters
+    public String getPassengerId() {
+        return passengerId;
+    }
+
+    public int getSeatNumber() {
+        return seatNumber;
+    }
+
+    @Override
+    public String toString() {
+        return passengerId + "@" + seatNumber;
+    }
+}
@@ -0,0 +1,110 @@
+package it.polito.flightbooking;
+
+import java.util.*;
+
+// immutable view of a leg's seats and booking codes, read without any lock.
+// a leg publishes a new one after every change, so a snapshot never changes once it can be seen.
+// the booking codes are the leg's own immutable set, shared rather than copied; the seat bitmap is copied
+// (one bit per seat), and that copy always lives on the heap, also when the leg's working inventory is
+// in a MappedSeatStore: the file is updated in place, so it cannot hold the older versions readers may use
+final class SeatSnapshot {
+    // the seats of a leg without a plane
+    static final SeatSnapshot EMPTY = new SeatSnapshot(0, new long[0], 0, SortedIntSet.EMPTY);
+
+    private final int capacity;
+    private final long[] bookedWords;
+    private final int bookedCount;
+    private final SortedIntSet bookingCodes;
+
+    private SeatSnapshot(int capacity, long[] bookedWords, int bookedCount, SortedIntSet bookingCodes) {
+        this.capacity = capacity;
+        this.bookedWords = bookedWords;
+        this.bookedCount = bookedCount;
+        this.bookingCodes = bookingCodes;
+    }
+
+    // captures the live state of a leg; the caller holds the leg's lock
+    static SeatSnapshot of(int capacity, SeatInventory inventory, SortedIntSet bookingCodes) {
+        long[] words = new long[inventory.getWordCount()];
+        for (int w = 0; w < words.length; w++) {
+            words[w] = inventory.getWord(w);
+        }
+        return new SeatSnapshot(capacity, words, inventory.getBookedCount(), bookingCodes);
+    }
+
+    // number of seats of the assigned plane, 0 without a plane
+    int getCapacity() {
+        return capacity;
+    }
+
+    int getBookedCount() {
+        return bookedCount;
+    }
+
+    // number of distinct bookings travelling on the leg
+    int getBookingCount() {
+        return bookingCodes.size();
+    }
+
+    boolean isSeatAvailable(int seatNumber) {
+        if (seatNumber < 1 || seatNumber > capacity) {
+            return false;
+        }
+        int bit = seatNumber - 1;
+        return (bookedWords[bit >>> 6] & (1L << bit)) == 0;
+    }
+
+    List<Integer> getAvailableSeats() {
+        List<Integer> availableSeats = new ArrayList<>(capacity - bookedCount);
+        for (int w = 0; w < bookedWords.length; w++) {
+            long free = freeWord(w);
+            while (free != 0) {
+                availableSeats.add((w << 6) + Long.numberOfTrailingZeros(free) + 1);
+                free &= free - 1;
+            }
+        }
+        return availableSeats;
+    }
+
+    Set<Integer> getBookedSeats() {
+        Set<Integer> bookedSeats = new HashSet<>();
+        for (int w = 0; w < bookedWords.length; w++) {
+            long booked = bookedWords[w];
+            while (booked != 0) {
+                bookedSeats.add((w << 6) + Long.numberOfTrailingZeros(booked) + 1);
+                booked &= booked - 1;
+            }
+        }
+        return bookedSeats;
+    }
+
+    // at most limit packed codes following after (from the first one if fromStart), in alphabetical order
+    int[] getBookingCodes(boolean fromStart, int after, int limit) {
+        return bookingCodes.slice(fromStart, after, limit);
+    }
+
+    // free seats of word w; bits past the capacity count as taken
+    long freeWord(int w) {
+        int remaining = capacity - (w << 6);
+        long valid = remaining >= 64 ? -1L : (1L << remaining) - 1;
+        return ~bookedWords[w] & valid;
+    }
+
+    // number of inventory words shared by all the snapshots (bounded by the smallest plane)
+    static int commonWordCount(SeatSnapshot[] seats) {
+        int words = Integer.MAX_VALUE;
+        for (SeatSnapshot snapshot : seats) {
+            words = Math.min(words, snapshot.bookedWords.length);
+        }
+        return seats.length == 0 ? 0 : words;
+    }
+
+    // seats of word w that are free in every snapshot
+    static long commonFreeWord(SeatSnapshot[] seats, int w) {
+        long free = -1L;
+        for (SeatSnapshot snapshot : seats) {
+            free &= snapshot.freeWord(w);
+        }
+        return free;
+    }
+}
@@ -0,0 +1,68 @@
+package it.polito.flightbooking;
+
+import java.util.List;
+
+// immutable map from leg id to seat snapshot: one consistent version of the seats of every leg.
+// it is a 32-way trie, so a new version copies only the few nodes on the path to each changed leg
+// and shares everything else with the version it was derived from
+final class SeatView {
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    static final SeatView EMPTY = new SeatView(new Object[1 << BITS], 0);
+
+    private final Object[] root;
+    // bit position of the root's index; 0 when the root holds the snapshots directly
+    private final int shift;
+
+    private SeatView(Object[] root, int shift) {
+        this.root = root;
+        this.shift = shift;
+    }
+
+    // the seats of a leg in this version, EMPTY if none were published for it
+    SeatSnapshot get(int legId) {
+        if ((legId >>> shift) >>> BITS != 0) {
+            return SeatSnapshot.EMPTY;
+        }
+        Object[] node = root;
+        for (int level = shift; level > 0; level -= BITS) {
+            node = (Object[]) node[(legId >>> level) & MASK];
+            if (node == null) {
+                return SeatSnapshot.EMPTY;
+            }
+        }
+        SeatSnapshot snapshot = (SeatSnapshot) node[legId & MASK];
+        return snapshot == null ? SeatSnapshot.EMPTY : snapshot;
+    }
+
+    // the seats of the legs, in the same order, all from this version
+    SeatSnapshot[] get(List<FlightLeg> legs) {
+        SeatSnapshot[] seats = new SeatSnapshot[legs.size()];
+        for (int i = 0; i < seats.length; i++) {
+            seats[i] = get(legs.get(i).getId());
+        }
+        return seats;
+    }
+
+    // a new version where the leg has the given seats
+    SeatView with(int legId, SeatSnapshot snapshot) {
+        Object[] top = root;
+        int topShift = shift;
+        while ((legId >>> topShift) >>> BITS != 0) {
+            // grow a level: the current trie becomes the first child of the new root
+            Object[] grown = new Object[1 << BITS];
+            grown[0] = top;
+            top = grown;
+            topShift += BITS;
+        }
+        return new SeatView(set(top, topShift, legId, snapshot), topShift);
+    }
+
+    private static Object[] set(Object[] node, int level, int legId, SeatSnapshot snapshot) {
+        Object[] copy = node == null ? new Object[1 << BITS] : node.clone();
+        int slot = (legId >>> level) & MASK;
+        copy[slot] = level == 0 ? snapshot : set((Object[]) copy[slot], level - BITS, legId, snapshot);
+        return copy;
+    }
+}
@@ -0,0 +1,156 @@
+package it.polito.flightbooking;
+
+import java.util.Arrays;
+
+// immutable set of packed booking codes in sorted order (unsigned), safe to share between threads.
+// the codes are kept in sorted chunks of at most CHUNK values: adding or removing a code copies one chunk
+// and the array of chunk references, and every other chunk is shared with the previous version
+final class SortedIntSet {
+    static final SortedIntSet EMPTY = new SortedIntSet(new int[0][], 0);
+
+    private static final int CHUNK = 64;
+
+    private final int[][] chunks;
+    private final int size;
+
+    private SortedIntSet(int[][] chunks, int size) {
+        this.chunks = chunks;
+        this.size = size;
+    }
+
+    // the set with value added; this set if it is already there
+    SortedIntSet with(int value) {
+        if (chunks.length == 0) {
+            return new SortedIntSet(new int[][] {{value}}, 1);
+        }
+        // a value past the end goes into the last chunk
+        int c = Math.min(chunkFor(value), chunks.length - 1);
+        int[] chunk = chunks[c];
+        int pos = indexOf(chunk, value);
+        if (pos >= 0) {
+            return this;
+        }
+        pos = -pos - 1;
+        int[] grown = new int[chunk.length + 1];
+        System.arraycopy(chunk, 0, grown, 0, pos);
+        grown[pos] = value;
+        System.arraycopy(chunk, pos, grown, pos + 1, chunk.length - pos);
+
+        int[][] next;
+        if (grown.length <= CHUNK) {
+            next = chunks.clone();
+            next[c] = grown;
+        } else {
+            int half = grown.length >>> 1;
+            next = new int[chunks.length + 1][];
+            System.arraycopy(chunks, 0, next, 0, c);
+            next[c] = Arrays.copyOfRange(grown, 0, half);
+            next[c + 1] = Arrays.copyOfRange(grown, half, grown.length);
+            System.arraycopy(chunks, c + 1, next, c + 2, chunks.length - c - 1);
+        }
+        return new SortedIntSet(next, size + 1);
+    }
+
+    // the set without value; this set if it is not there
+    SortedIntSet without(int value) {
+        int c = chunkFor(value);
+        if (c == chunks.length) {
+            return this;
+        }
+        int[] chunk = chunks[c];
+        int pos = indexOf(chunk, value);
+        if (pos < 0) {
+            return this;
+        }
+        int[] shrunk = new int[chunk.length - 1];
+        System.arraycopy(chunk, 0, shrunk, 0, pos);
+        System.arraycopy(chunk, pos + 1, shrunk, pos, shrunk.length - pos);
+
+        // a small chunk is folded into its smaller neighbour, so removals cannot leave many tiny chunks
+        int neighbour = -1;
+        if (c > 0) {
+            neighbour = c - 1;
+        }
+        if (c + 1 < chunks.length && (neighbour < 0 || chunks[c + 1].length < chunks[neighbour].length)) {
+            neighbour = c + 1;
+        }
+        if (neighbour >= 0 && shrunk.length + chunks[neighbour].length <= CHUNK / 2) {
+            int first = Math.min(c, neighbour);
+            int[] left = first == c ? shrunk : chunks[first];
+            int[] right = first == c ? chunks[first + 1] : shrunk;
+            int[] merged = Arrays.copyOf(left, left.length + right.length);
+            System.arraycopy(right, 0, merged, left.length, right.length);
+            int[][] next = new int[chunks.length - 1][];
+            System.arraycopy(chunks, 0, next, 0, first);
+            next[first] = merged;
+            System.arraycopy(chunks, first + 2, next, first + 1, chunks.length - first - 2);
+            return new SortedIntSet(next, size - 1);
+        }
+        if (shrunk.length == 0) {
+            int[][] next = new int[chunks.length - 1][];
+            System.arraycopy(chunks, 0, next, 0, c);
+            System.arraycopy(chunks, c + 1, next, c, chunks.length - c - 1);
+            return new SortedIntSet(next, size - 1);
+        }
+        int[][] next = chunks.clone();
+        next[c] = shrunk;
+        return new SortedIntSet(next, size - 1);
+    }
+
+    int size() {
+        return size;
+    }
+
+    // at most limit values greater than after (from the first one if fromStart), in order
+    int[] slice(boolean fromStart, int after, int limit) {
+        int[] values = new int[Math.max(0, Math.min(limit, size))];
+        int count = 0;
+        int c = fromStart ? 0 : chunkFor(after);
+        int pos = 0;
+        if (!fromStart && c < chunks.length) {
+            pos = indexOf(chunks[c], after);
+            pos = pos >= 0 ? pos + 1 : -pos - 1;
+        }
+        for (; c < chunks.length && count < values.length; c++, pos = 0) {
+            int[] chunk = chunks[c];
+            int n = Math.min(chunk.length - pos, values.length - count);
+            System.arraycopy(chunk, pos, values, count, n);
+            count += n;
+        }
+        return count == values.length ? values : Arrays.copyOf(values, count);
+    }
+
+    // index of the first chunk whose last value is not below value, or the number of chunks
+    private int chunkFor(int value) {
+        int low = 0;
+        int high = chunks.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int[] chunk = chunks[mid];
+            if (BookingCode.compare(chunk[chunk.length - 1], value) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    // binary search: the index of value, or (-(insertion point) - 1)
+    private static int indexOf(int[] chunk, int value) {
+        int low = 0;
+        int high = chunk.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = BookingCode.compare(chunk[mid], value);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+}
@@ -0,0 +1,176 @@
+package it.polito.flightbooking;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+// append-only log of mutation records with group commit.
+// records are appended to an in-memory batch and made durable by sync(): the first waiting thread
+// writes and fsyncs the whole batch for everyone, the others wait for it instead of issuing their own fsync.
+// every record is framed as (length, crc32, bytes) so a torn tail is detected on recovery.
+class WriteAheadLog implements Closeable {
+    // far above any real record; a longer frame can only be a corrupt length
+    static final int MAX_RECORD_LENGTH = 1 << 24;
+
+    private final FileChannel channel;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition flushed = lock.newCondition();
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private long appended;
+    private long durable;
+    private boolean flushing;
+    private volatile IOException failure;
+    private volatile long records;
+
+    WriteAheadLog(Path file) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+    }
+
+    // adds a record to the current batch; returns its sequence number for sync()
+    long append(byte[] record) {
+        lock.lock();
+        try {
+            writeFrame(pending, record);
+            records++;
+            return ++appended;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // blocks until the record with the given sequence number is on disk
+    void sync(long sequence) throws IOException {
+        lock.lock();
+        try {
+            while (durable < sequence) {
+                if (failure != null) {
+                    throw failure;
+                }
+                if (flushing) {
+                    flushed.awaitUninterruptibly();
+                    continue;
+                }
+                // become the leader of this batch
+                flushing = true;
+                byte[] batch = pending.toByteArray();
+                pending = new ByteArrayOutputStream();
+                long batchEnd = appended;
+                lock.unlock();
+                IOException error = null;
+                try {
+                    ByteBuffer buffer = ByteBuffer.wrap(batch);
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    channel.force(false);
+                } catch (IOException e) {
+                    error = e;
+                } finally {
+                    lock.lock();
+                }
+                flushing = false;
+                if (error != null) {
+                    // the batch is lost, so every later record would be out of order: fail for good
+                    failure = error;
+                } else {
+                    durable = batchEnd;
+                }
+                flushed.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // the write error that stopped the log for good, or null while it works
+    IOException getFailure() {
+        return failure;
+    }
+
+    // number of records appended since the log was opened
+    long records() {
+        return records;
+    }
+
+    @Override
+    public void close() throws IOException {
+        long last;
+        lock.lock();
+        try {
+            last = appended;
+        } finally {
+            lock.unlock();
+        }
+        try {
+            sync(last);
+        } finally {
+            channel.close();
+        }
+    }
+
+    static void writeFrame(OutputStream out, byte[] record) {
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        writeInt(out, record.length);
+        writeInt(out, (int) crc.getValue());
+        try {
+            out.write(record);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void writeInt(OutputStream out, int value) {
+        try {
+            out.write(value >>> 24);
+            out.write(value >>> 16);
+            out.write(value >>> 8);
+            out.write(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // receives the records read back from a log or snapshot
+    interface RecordHandler {
+        void accept(byte[] record) throws FlightException;
+    }
+
+    // reads frames until the end of the stream or the first torn/corrupt frame, given the number of bytes
+    // left in the stream; returns the number of bytes taken by the valid frames.
+    // no record is empty, so a zero length is the zero-filled tail a crash can leave behind,
+    // and a length past the end of the stream is garbage that must not size an allocation
+    static long readFrames(InputStream input, long size, RecordHandler handler) throws IOException, FlightException {
+        DataInputStream in = new DataInputStream(input);
+        long valid = 0;
+        while (true) {
+            int length;
+            int checksum;
+            byte[] record;
+            try {
+                length = in.readInt();
+                checksum = in.readInt();
+                if (length <= 0 || length > MAX_RECORD_LENGTH || length > size - valid - 8) {
+                    return valid;
+                }
+                record = new byte[length];
+                in.readFully(record);
+            } catch (EOFException e) {
+                return valid;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(record);
+            if ((int) crc.getValue() != checksum) {
+                return valid;
+            }
+            handler.accept(record);
+            valid += 8 + length;
+        }
+    }
+}
@@ -1,23 +1,43 @@
 package it.polito.oop.test;
 
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThrows;
 import static org.junit.Assert.assertTrue;
 import org.junit.Before;
 import org.junit.Test;
 
+import it.polito.flightbooking.Booking;
 import it.polito.flightbooking.FlightException;
 import it.polito.flightbooking.FlightManager;
+import it.polito.flightbooking.FlightMetrics;
+import it.polito.flightbooking.RoutePreference;
+import it.polito.flightbooking.SeatPolicy;
+import it.polito.flightbooking.SeatRequest;
 
 public class AcceptanceTest {
 
@@ -245,6 +265,42 @@ public class AcceptanceTest {
         }
     }
 
+    @Test
+    public void testR3_FindAvailableSeatsAcrossWordBoundaries() throws FlightException {
+        fm.addAirport("A", "A", 0, 0);
+        fm.addAirport("B", "B", 1, 1);
+        fm.addAirport("C", "C", 2, 2);
+        fm.defineRoute("A-A", "B-B", "C-C");
+        fm.addPlane("P1", 130);
+        fm.addPlane("P2", 70);
+        fm.assignPlaneToLeg("A-A", "B-B", "P1");
+        fm.assignPlaneToLeg("B-B", "C-C", "P2");
+        // the legs have three and two words of seats; bookings sit on both sides of the word boundary
+        fm.bookSeat("U1", "A-A", "B-B", 64);
+        fm.bookSeat("U2", "B-B", "C-C", 65);
+        fm.bookSeat("U3", "A-A", "B-B", 70);
+        fm.bookSeat("U4", "A-A", "B-B", 1);
+        fm.bookSeat("U5", "A-A", "B-B", 129);
+        List<Integer> expected = new ArrayList<>();
+        for (int seat = 2; seat <= 69; seat++) {
+            if (seat != 64 && seat != 65) {
+                expected.add(seat);
+            }
+        }
+        Map<String, List<Integer>> available = fm.findAvailableSeats("A-A", "C-C");
+        assertEquals(2, available.size());
+        assertEquals(expected, available.get("A-A;B-B"));
+        assertEquals(expected, available.get("B-B;C-C"));
+
+        // a single leg still lists the seats of its last, partial word
+        List<Integer> first = fm.findAvailableSeats("A-A", "B-B").get("A-A;B-B");
+        assertEquals(126, first.size());
+        assertTrue(first.contains(65));
+        assertTrue(first.contains(130));
+        assertFalse(first.contains(129));
+        assertFalse(first.contains(131));
+    }
+
     @Test
     public void testR2_FindAvailableSeatsInvalid() throws FlightException {
         fm.addAirport("A", "A", 0, 0);
@@ -437,6 +493,70 @@ public class AcceptanceTest {
         assertEquals(Arrays.asList(codes), bookings);
     }
 
+    @Test
+    public void testR4_ListBookingsSortedThroughCancellations() throws FlightException {
+        fm.addAirport("X", "X", 0, 0);
+        fm.addAirport("Y", "Y", 1, 1);
+        fm.defineRoute("X-X", "Y-Y");
+        fm.addPlane("P", 600);
+        fm.assignPlaneToLeg("X-X", "Y-Y", "P");
+        // enough codes to fill many sorted chunks, then enough cancellations to merge most of them again
+        TreeSet<String> expected = new TreeSet<>();
+        for (int seat = 1; seat <= 600; seat++) {
+            expected.add(fm.bookSeat("U" + seat, "X-X", "Y-Y", seat));
+        }
+        assertEquals(new ArrayList<>(expected), fm.listBookingsForLeg("X-X", "Y-Y"));
+
+        List<String> order = new ArrayList<>(expected);
+        Collections.shuffle(order, new Random(42));
+        for (int i = 0; i < 560; i++) {
+            fm.cancelBooking(order.get(i));
+            expected.remove(order.get(i));
+            if (i % 40 == 39) {
+                assertEquals(new ArrayList<>(expected), fm.listBookingsForLeg("X-X", "Y-Y"));
+                List<String> paged = new ArrayList<>();
+                for (List<String> page = fm.listBookingsForLeg("X-X", "Y-Y", null, 9); !page.isEmpty();
+                     page = fm.listBookingsForLeg("X-X", "Y-Y", page.get(page.size() - 1), 9)) {
+                    paged.addAll(page);
+                }
+                assertEquals(new ArrayList<>(expected), paged);
+            }
+        }
+    }
+
+    @Test
+    public void testR3_BookingLookupsAfterManyCancellations() throws FlightException {
+        fm.addAirport("X", "X", 0, 0);
+        fm.addAirport("Y", "Y", 1, 1);
+        fm.defineRoute("X-X", "Y-Y");
+        fm.addPlane("P", 2000);
+        fm.assignPlaneToLeg("X-X", "Y-Y", "P");
+        List<String> codes = new ArrayList<>();
+        for (int seat = 1; seat <= 2000; seat++) {
+            codes.add(fm.bookSeat("U" + seat, "X-X", "Y-Y", seat));
+        }
+        // deletions in random order move the entries that follow them in the hash tables
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < codes.size(); i++) {
+            order.add(i);
+        }
+        Collections.shuffle(order, new Random(7));
+        Set<Integer> cancelled = new HashSet<>(order.subList(0, 1500));
+        for (int i : order.subList(0, 1500)) {
+            fm.cancelBooking(codes.get(i));
+        }
+        for (int i = 0; i < codes.size(); i++) {
+            String code = codes.get(i);
+            if (cancelled.contains(i)) {
+                assertThrows("Expected FlightException for a cancelled booking", FlightException.class,
+                             ()->fm.getBooking(code));
+            } else {
+                assertEquals(i + 1, fm.getBooking(code).getSeatNumber());
+            }
+        }
+        assertEquals(500, fm.listBookingsForLeg("X-X", "Y-Y").size());
+    }
+
     @Test
     public void testR4_MostPopularLegSingle() throws FlightException {
         fm.addAirport("A", "A", 0, 0);
@@ -463,4 +583,1020 @@ public class AcceptanceTest {
         assertNotNull(popular);
         assertTrue(popular.equals("A-A;B-B") || popular.equals("B-B;C-C"));
     }
+
+    /* Booking registry */
+
+    @Test
+    public void testR3_BookingCodeRoundTrip() {
+        // the lowest and highest codes, and codes on either side of the signed int boundary
+        for (String code : Arrays.asList("000000", "A1B2C3", "ZIK0ZJ", "ZIK0ZK", "ZZZZZZ")) {
+            assertEquals(code, new Booking(code, "U1", "A-A", "B-B", 1).getBookingId());
+        }
+        for (String code : Arrays.asList("", "ABCDE", "ABCDEFG", "abcdef", "ABC-EF")) {
+            assertThrows("Expected IllegalArgumentException for the malformed code " + code, IllegalArgumentException.class,
+                         ()->new Booking(code, "U1", "A-A", "B-B", 1));
+        }
+        assertThrows("Expected IllegalArgumentException for a missing code", IllegalArgumentException.class,
+                     ()->new Booking(null, "U1", "A-A", "B-B", 1));
+    }
+
+    @Test
+    public void testBookingLookups() throws FlightException {
+        fm.addAirport("A", "A", 0, 0);
+        fm.addAirport("B", "B", 1, 1);
+        fm.addAirport("C", "C", 2, 2);
+        fm.defineRoute("A-A", "B-B", "C-C");
+        fm.addPlane("P", 5);
+        fm.assignPlaneToLeg("A-A", "B-B", "P");
+        fm.assignPlaneToLeg("B-B", "C-C", "P");
+        String code1 = fm.bookSeat("U1", "A-A", "C-C", 1);
+        String code2 = fm.bookSeat("U1", "B-B", "C-C", 2);
+        fm.bookSeat("U2", "A-A", "B-B", 3);
+
+        Booking booking = fm.getBooking(code1);
+        assertEquals("U1", booking.getPassengerId());
+        assertEquals(1, booking.getSeatNumber());
+        assertEquals(Arrays.asList("A-A;B-B", "B-B;C-C"), booking.getLegs());
+        assertEquals(2, fm.getBookingsForPassenger("U1").size());
+        assertTrue(fm.getBookingsForPassenger("U3").isEmpty());
+
+        List<Booking> onLeg = fm.getBookingsForLeg("B-B", "C-C");
+        assertEquals(2, onLeg.size());
+        assertTrue(onLeg.contains(fm.getBooking(code2)));
+        assertThrows("Expected FlightException when the booking code is unknown", FlightException.class,
+                     ()->fm.getBooking("XXXXXX"));
+    }
+
+    @Test
+    public void testCancelBooking() throws FlightException {
+        fm.addAirport("A", "A", 0, 0);
+        fm.addAirport("B", "B", 1, 1);
+        fm.addAirport("C", "C", 2, 2);
+        fm.defineRoute("A-A", "B-B", "C-C");
+        fm.addPlane("P", 2);
+        fm.assignPlaneToLeg("A-A", "B-B", "P");
+        fm.assignPlaneToLeg("B-B", "C-C", "P");
+        String code = fm.bookSeat("U1", "A-A", "C-C", 1);
+        String other = fm.bookSeat("U2", "B-B", "C-C", 2);
+
+        fm.cancelBooking(code);
+        assertEquals(0.0, fm.occupationRate("A-A", "B-B"), 0.0001);
+        assertEquals(0.5, fm.occupationRate("B-B", "C-C"), 0.0001);
+        assertEquals(Arrays.asList(other), fm.listBookingsForLeg("B-B", "C-C"));
+        assertTrue(fm.getBookingsForPassenger("U1").isEmpty());
+        assertEquals("B-B;C-C", fm.mostPopularLeg());
+        assertNotNull(fm.bookSeat("U3", "A-A", "C-C", 1));
+        assertThrows("Expected FlightException when cancelling twice", FlightException.class,
+                     ()->fm.cancelBooking(code));
+    }
+
+    @Test
+    public void testListBookingsForLegPaged() throws FlightException {
+        fm.addAirport("X", "X", 0, 0);
+        fm.addAirport("Y", "Y", 1, 1);
+        fm.defineRoute("X-X", "Y-Y");
+        fm.addPlane("P", 5);
+        fm.assignPlaneToLeg("X-X", "Y-Y", "P");
+        for (int seat = 1; seat <= 5; seat++) {
+            fm.bookSeat("U" + seat, "X-X", "Y-Y", seat);
+        }
+        List<String> all = fm.listBookingsForLeg("X-X", "Y-Y");
+
+        List<String> first = fm.listBookingsForLeg("X-X", "Y-Y", null, 2);
+        List<String> second = fm.listBookingsForLeg("X-X", "Y-Y", first.get(1), 2);
+        List<String> third = fm.listBookingsForLeg("X-X", "Y-Y", second.get(1), 2);
+        assertEquals(all.subList(0, 2), first);
+        assertEquals(all.subList(2, 4), second);
+        assertEquals(all.subList(4, 5), third);
+        assertTrue(fm.listBookingsForLeg("X-X", "Y-Y", third.get(0), 2).isEmpty());
+    }
+
+    @Test
+    public void testGroupBooking() throws FlightException {
+        fm.addAirport("A", "A", 0, 0);
+        fm.addAirport("B", "B", 1, 1);
+        fm.addAirport("C", "C", 2, 2);
+        fm.defineRoute("A-A", "B-B", "C-C");
+        fm.addPlane("P1", 10);
+        fm.addPlane("P2", 4);
+        fm.assignPlaneToLeg("A-A", "B-B", "P1");
+        fm.assignPlaneToLeg("B-B", "C-C", "P2");
+        fm.bookSeat("U0", "B-B", "C-C", 3);
+
+        assertThrows("Expected FlightException when one seat of the group is taken", FlightException.class,
+                     ()->fm.bookSeats("A-A", "C-C", Arrays.asList(new SeatRequest("U1", 1), new SeatRequest("U2", 3))));
+        assertThrows("Expected FlightException when one seat of the group does not exist", FlightException.class,
+                     ()->fm.bookSeats("A-A", "C-C", Arrays.asList(new SeatRequest("U1", 1), new SeatRequest("U2", 5))));
+        assertThrows("Expected FlightException when a seat is requested twice", FlightException.class,
+                     ()->fm.bookSeats("A-A", "C-C", Arrays.asList(new SeatRequest("U1", 1), new SeatRequest("U2", 1))));
+        assertEquals(0.0, fm.occupationRate("A-A", "B-B"), 0.0001);
+
+        List<String> codes = fm.bookSeats("A-A", "C-C", Arrays.asList(new SeatRequest("U1", 2), new SeatRequest("U2", 4)));
+        assertEquals(2, codes.size());
+        assertEquals(4, fm.getBooking(codes.get(1)).getSeatNumber());
+        assertEquals(Arrays.asList(1), fm.findAvailableSeats("A-A", "C-C").get("A-A;B-B"));
+    }
+
+    @Test
+    public void testBookAnySeat() throws FlightException {
+        fm.addAirport("A", "A", 0, 0);
+        fm.addAirport("B", "B", 1, 1);
+        fm.addAirport("C", "C", 2, 2);
+        fm.defineRoute("A-A", "B-B", "C-C");
+        fm.addPlane("P", 6);
+        fm.assignPlaneToLeg("A-A", "B-B", "P");
+        fm.assignPlaneToLeg("B-B", "C-C", "P");
+        fm.bookSeat("U0", "B-B", "C-C", 1);
+
+        String code = fm.bookAnySeat("U1", "A-A", "C-C", SeatPolicy.LOWEST_NUMBER);
+        assertEquals(2, fm.getBooking(code).getSeatNumber());
+        code = fm.bookAnySeat("U2", "A-A", "C-C", SeatPolicy.window(3));
+        assertEquals(3, fm.getBooking(code).getSeatNumber());
+        code = fm.bookAnySeat("U3", "A-A", "C-C", SeatPolicy.window(3));
+        assertEquals(4, fm.getBooking(code).getSeatNumber());
+
+        fm.bookAnySeat("U4", "A-A", "C-C", SeatPolicy.LOWEST_NUMBER);
+        fm.bookAnySeat("U5", "A-A", "C-C", SeatPolicy.LOWEST_NUMBER);
+        assertThrows("Expected FlightException when no seat is free", FlightException.class,
+                     ()->fm.bookAnySeat("U6", "A-A", "C-C", SeatPolicy.LOWEST_NUMBER));
+        assertThrows("Expected IllegalArgumentException for rows without seats", IllegalArgumentException.class,
+                     ()->SeatPolicy.window(0));
+    }
+
+    @Test
+    public void testContiguousSeats() throws FlightException {
+        fm.addAirport("A", "A", 0, 0);
+        fm.addAirport("B", "B", 1, 1);
+        fm.addAirport("C", "C", 2, 2);
+        fm.defineRoute("A-A", "B-B", "C-C");
+        fm.addPlane("P1", 200);
+        fm.addPlane("P2", 140);
+        fm.assignPlaneToLeg("A-A", "B-B", "P1");
+        fm.assignPlaneToLeg("B-B", "C-C", "P2");
+        fm.bookSeat("U0", "A-A", "B-B", 3);
+        fm.bookSeat("U0", "B-B", "C-C", 62);
+
+        assertEquals(Arrays.asList(4, 5, 6), fm.findContiguousSeats("A-A", "C-C", 3));
+        // the first block of 60 must skip seat 3 and seat 62, so it straddles the 64-seat word boundary
+        assertEquals(Integer.valueOf(63), fm.findContiguousSeats("A-A", "C-C", 60).get(0));
+        assertTrue(fm.findContiguousSeats("A-A", "C-C", 79).isEmpty());
+        // larger than the smaller plane: no block, and nothing sized by the request
+        assertTrue(fm.findContiguousSeats("A-A", "C-C", 141).isEmpty());
+        assertTrue(fm.findContiguousSeats("A-A", "C-C", Integer.MAX_VALUE).isEmpty());
+        assertThrows("Expected FlightException for a non-positive block size", FlightException.class,
+                     ()->fm.findContiguousSeats("A-A", "C-C", 0));
+
+        List<String> codes = fm.bookContiguousSeats("A-A", "C-C", Arrays.asList("U1", "U2"));
+        assertEquals(1, fm.getBooking(codes.get(0)).getSeatNumber());
+        assertEquals(2, fm.getBooking(codes.get(1)).getSeatNumber());
+        assertThrows("Expected FlightException when no block is free", FlightException.class,
+                     ()->fm.bookContiguousSeats("A-A", "C-C", Collections.nCopies(79, "U3")));
+    }
+
+    /* Route resolution */
+
+    @Test
+    public void testRouteFoundAfterLaterDefinition() throws FlightException {
+        fm.addAirport("A", "A", 0, 0);
+        fm.addAirport("B", "B", 1, 1);
+        fm.addAirport("C", "C", 2, 2);
+        fm.defineRoute("A-A", "B-B");
+        fm.addPlane("P", 3);
+        fm.assignPlaneToLeg("A-A", "B-B", "P");
+        assertThrows("Expected FlightException when the route is not defined yet", FlightException.class,
+                     ()->fm.findAvailableSeats("A-A", "C-C"));
+
+        fm.defineRoute("B-B", "C-C");
+        fm.assignPlaneToLeg("B-B", "C-C", "P");
+        Map<String, List<Integer>> available = fm.findAvailableSeats("A-A", "C-C");
+        assertEquals(2, available.size());
+        assertTrue(available.containsKey("B-B;C-C"));
+    }
+
+    @Test
+    public void testRouteWithCycles() throws FlightException {
+        fm.addAirport("A", "A", 0, 0);
+        fm.addAirport("B", "B", 1, 1);
+        fm.addAirport("C", "C", 2, 2);
+        fm.defineRoute("A-A", "B-B");
+        fm.defineRoute("B-B", "A-A");
+        fm.addPlane("P", 3);
+        fm.assignPlaneToLeg("A-A", "B-B", "P");
+        assertThrows("Expected FlightException when the destination is unreachable", FlightException.class,
+                     ()->fm.findAvailableSeats("A-A", "C-C"));
+    }
+
+    @Test
+    public void testRoutePreferenceShortestDistance() throws FlightException {
+        fm.addAirport("TRN", "Torino", 45.07, 7.66);
+        fm.addAirport("LIN", "Milano", 45.45, 9.28);
+        fm.addAirport("JFK", "NewYork", 40.64, -73.78);
+        fm.addAirport("FCO", "Roma", 41.8, 12.25);
+        fm.defineRoute("Torino-TRN", "NewYork-JFK", "Roma-FCO");
+        fm.defineRoute("Torino-TRN", "Milano-LIN", "Roma-FCO");
+        fm.addPlane("P", 3);
+        fm.assignPlaneToLeg("Torino-TRN", "NewYork-JFK", "P");
+        fm.assignPlaneToLeg("NewYork-JFK", "Roma-FCO", "P");
+        fm.assignPlaneToLeg("Torino-TRN", "Milano-LIN", "P");
+        fm.assignPlaneToLeg("Milano-LIN", "Roma-FCO", "P");
+
+        fm.setRoutePreference(RoutePreference.SHORTEST_DISTANCE);
+        Map<String, List<Integer>> available = fm.findAvailableSeats("Torino-TRN", "Roma-FCO");
+        assertEquals(2, available.size());
+        assertTrue(available.containsKey("Torino-TRN;Milano-LIN"));
+        assertTrue(available.containsKey("Milano-LIN;Roma-FCO"));
+    }
+
+    /* Seat inventory */
+
+    @Test
+    public void testSeatInventoryAcrossWords() throws FlightException {
+        fm.addAirport("A", "A", 0, 0);
+        fm.addAirport("B", "B", 1, 1);
+        fm.defineRoute("A-A", "B-B");
+        fm.addPlane("P", 130);
+        fm.assignPlaneToLeg("A-A", "B-B", "P");
+        fm.bookSeat("U1", "A-A", "B-B", 64);
+        fm.bookSeat("U2", "A-A", "B-B", 65);
+        fm.bookSeat("U3", "A-A", "B-B", 130);
+        List<Integer> available = fm.findAvailableSeats("A-A", "B-B").get("A-A;B-B");
+        assertEquals(127, available.size());
+        assertFalse(available.contains(64));
+        assertFalse(available.contains(65));
+        assertFalse(available.contains(130));
+        assertTrue(available.contains(129));
+        assertEquals(Integer.valueOf(1), available.get(0));
+        assertEquals(3.0 / 130, fm.occupationRate("A-A", "B-B"), 0.0001);
+    }
+
+    /* Concurrency */
+
+    @Test
+    public void testPassengerBookingsUnderConcurrentCancellations() throws Exception {
+        fm.addAirport("A", "A", 0, 0);
+        fm.addAirport("B", "B", 1, 1);
+        fm.defineRoute("A-A", "B-B");
+        fm.addPlane("P", 400);
+        fm.assignPlaneToLeg("A-A", "B-B", "P");
+
+        // the passenger's last booking keeps going away while others are added
+        int threads = 4;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<List<String>>> results = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int base = t * 100;
+            results.add(pool.submit(() -> {
+                List<String> kept = new ArrayList<>();
+                for (int seat = base + 1; seat <= base + 100; seat++) {
+                    String code = fm.bookSeat("U", "A-A", "B-B", seat);
+                    if (seat % 10 == 0) {
+                        kept.add(code);
+                    } else {
+                        fm.cancelBooking(code);
+                    }
+                }
+                return kept;
+            }));
+        }
+        Set<String> kept = new HashSet<>();
+        for (Future<List<String>> result : results) {
+            kept.addAll(result.get());
+        }
+        pool.shutdown();
+
+        Set<String> found = new HashSet<>();
+        for (Booking booking : fm.getBookingsForPassenger("U")) {
+            found.add(booking.getBookingId());
+        }
+        assertEquals(kept, found);
+        for (String code : kept) {
+            fm.cancelBooking(code);
+        }
+        assertTrue(fm.getBookingsForPassenger("U").isEmpty());
+    }
+
+    @Test
+    public void testBookingCodesUniqueAmongLiveBookings() throws Exception {
+        fm.addAirport("A", "A", 0, 0);
+        fm.addAirport("B", "B", 1, 1);
+        fm.defineRoute("A-A", "B-B");
+        fm.addPlane("P", 400);
+        fm.assignPlaneToLeg("A-A", "B-B", "P");
+
+        // each thread books single seats and one group, in disjoint ranges of seats
+        int threads = 4;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<List<String>>> results = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int base = t * 100;
+            results.add(pool.submit(() -> {
+                List<String> codes = new ArrayList<>();
+                for (int i = 1; i <= 50; i++) {
+                    codes.add(fm.bookSeat("U" + (base + i), "A-A", "B-B", base + i));
+                }
+                List<SeatRequest> group = new ArrayList<>();
+                for (int i = 51; i <= 100; i++) {
+                    group.add(new SeatRequest("U" + (base + i), base + i));
+                }
+                codes.addAll(fm.bookSeats("A-A", "B-B", group));
+                return codes;
+            }));
+        }
+        List<String> codes = new ArrayList<>();
+        for (Future<List<String>> result : results) {
+            codes.addAll(result.get());
+        }
+        pool.shutdown();
+        assertEquals(400, new HashSet<>(codes).size());
+        for (String code : codes) {
+            assertTrue(code.matches("[0-9A-Z]{6}"));
+        }
+
+        // cancelled codes stop resolving, and new bookings never take a code that is still live
+        Set<String> live = new HashSet<>();
+        for (int i = 0; i < codes.size(); i++) {
+            if (i % 2 == 0) {
+                fm.cancelBooking(codes.get(i));
+            } else {
+                live.add(codes.get(i));
+            }
+        }
+        for (int i = 0; i < codes.size(); i += 2) {
+            String cancelled = codes.get(i);
+            assertThrows("Expected FlightException for a cancelled booking", FlightException.class,
+                         ()->fm.getBooking(cancelled));
+        }
+        List<SeatRequest> group = new ArrayList<>();
+        for (int seat = 1; seat <= 400; seat += 2) {
+            group.add(new SeatRequest("V" + seat, seat));
+        }
+        for (String code : fm.bookSeats("A-A", "B-B", group)) {
+            assertTrue(live.add(code));
+        }
+        assertEquals(400, live.size());
+        assertEquals(live, new HashSet<>(fm.listBookingsForLeg("A-A", "B-B")));
+    }
+
+    @Test
+    public void testConcurrentBookingsSameSeat() throws Exception {
+        fm.addAirport("A", "A", 0, 0);
+        fm.addAirport("B", "B", 1, 1);
+        fm.addAirport("C", "C", 2, 2);
+        fm.defineRoute("A-A", "B-B", "C-C");
+        fm.addPlane("P", 4);
+        fm.assignPlaneToLeg("A-A", "B-B", "P");
+        fm.assignPlaneToLeg("B-B", "C-C", "P");
+
+        int threads = 8;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger booked = new AtomicInteger();
+        List<Future<?>> results = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            String from = i % 2 == 0 ? "A-A" : "B-B";
+            String passenger = "U" + i;
+            results.add(pool.submit(() -> {
+                start.await();
+                try {
+                    fm.bookSeat(passenger, from, "C-C", 1);
+                    booked.incrementAndGet();
+                } catch (FlightException e) {
+                    // seat already taken by another thread
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> result : results) {
+            result.get();
+        }
+        pool.shutdown();
+
+        assertEquals(1, booked.get());
+        assertFalse(fm.findAvailableSeats("B-B", "C-C").get("B-B;C-C").contains(1));
+    }
+
+    @Test
+    public void testSearchesSeeWholeMutations() throws Exception {
+        fm.addAirport("A", "A", 0, 0);
+        fm.addAirport("B", "B", 1, 1);
+        fm.addAirport("C", "C", 2, 2);
+        fm.defineRoute("A-A", "B-B", "C-C");
+        fm.addPlane("P", 4);
+        fm.assignPlaneToLeg("A-A", "B-B", "P");
+        fm.assignPlaneToLeg("B-B", "C-C", "P");
+
+        // seat 1 is always taken on at least one of the two legs, so it is never free from A to C
+        String first = fm.bookSeat("U1", "B-B", "C-C", 1);
+        ExecutorService pool = Executors.newFixedThreadPool(3);
+        CountDownLatch done = new CountDownLatch(1);
+        Future<?> writer = pool.submit(() -> {
+            String second = first;
+            try {
+                for (int i = 0; i < 2000; i++) {
+                    String other = fm.bookSeat("U2", "A-A", "B-B", 1);
+                    fm.cancelBooking(second);
+                    second = fm.bookSeat("U1", "B-B", "C-C", 1);
+                    fm.cancelBooking(other);
+                }
+            } finally {
+                done.countDown();
+            }
+            return null;
+        });
+        AtomicInteger torn = new AtomicInteger();
+        List<Future<?>> readers = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            readers.add(pool.submit(() -> {
+                while (done.getCount() > 0) {
+                    if (fm.findAvailableSeats("A-A", "C-C").get("A-A;B-B").contains(1)
+                            || fm.findContiguousSeats("A-A", "C-C", 1).contains(1)) {
+                        torn.incrementAndGet();
+                    }
+                }
+                return null;
+            }));
+        }
+        writer.get();
+        for (Future<?> reader : readers) {
+            reader.get();
+        }
+        pool.shutdown();
+
+        assertEquals(0, torn.get());
+        assertEquals(0.25, fm.occupationRate("B-B", "C-C"), 0.0001);
+        assertEquals(0.0, fm.occupationRate("A-A", "B-B"), 0.0001);
+        assertEquals(1, fm.listBookingsForLeg("B-B", "C-C").size());
+    }
+
+    @Test
+    public void testBookingsForLegDuringCancellations() throws Exception {
+        fm.addAirport("A", "A", 0, 0);
+        fm.addAirport("B", "B", 1, 1);
+        fm.defineRoute("A-A", "B-B");
+        fm.addPlane("P", 64);
+        fm.assignPlaneToLeg("A-A", "B-B", "P");
+
+        int threads = 4;
+        ExecutorService pool = Executors.newFixedThreadPool(threads + 1);
+        CountDownLatch done = new CountDownLatch(threads);
+        List<Future<?>> writers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            int seat = i + 1;
+            writers.add(pool.submit(() -> {
+                try {
+                    for (int n = 0; n < 500; n++) {
+                        fm.cancelBooking(fm.bookSeat("U" + seat, "A-A", "B-B", seat));
+                    }
+                } finally {
+                    done.countDown();
+                }
+                return null;
+            }));
+        }
+        Future<Integer> reader = pool.submit(() -> {
+            int invalid = 0;
+            while (done.getCount() > 0) {
+                for (Booking booking : fm.getBookingsForLeg("A-A", "B-B")) {
+                    if (booking == null || !booking.getLegs().contains("A-A;B-B")) {
+                        invalid++;
+                    }
+                }
+            }
+            return invalid;
+        });
+        for (Future<?> writer : writers) {
+            writer.get();
+        }
+        assertEquals(Integer.valueOf(0), reader.get());
+        pool.shutdown();
+        assertTrue(fm.getBookingsForLeg("A-A", "B-B").isEmpty());
+    }
+
+    /* Leaderboard */
+
+    @Test
+    public void testTopLegs() throws FlightException {
+        fm.addAirport("A", "A", 0, 0);
+        fm.addAirport("B", "B", 1, 1);
+        fm.addAirport("C", "C", 2, 2);
+        fm.addAirport("D", "D", 3, 3);
+        fm.defineRoute("A-A", "B-B", "C-C", "D-D");
+        fm.addPlane("P", 5);
+        fm.assignPlaneToLeg("A-A", "B-B", "P");
+        fm.assignPlaneToLeg("B-B", "C-C", "P");
+        fm.assignPlaneToLeg("C-C", "D-D", "P");
+        assertNull(fm.mostPopularLeg());
+
+        fm.bookSeat("U1", "B-B", "D-D", 1);
+        String code = fm.bookSeat("U2", "C-C", "D-D", 2);
+        fm.bookSeat("U3", "A-A", "B-B", 1);
+        assertEquals("C-C;D-D", fm.mostPopularLeg());
+        assertEquals(Arrays.asList("C-C;D-D", "A-A;B-B", "B-B;C-C"), fm.topLegs(5));
+        assertEquals(Arrays.asList("C-C;D-D", "A-A;B-B"), fm.topLegs(2));
+
+        fm.cancelBooking(code);
+        assertEquals(Arrays.asList("A-A;B-B", "B-B;C-C", "C-C;D-D"), fm.topLegs(3));
+    }
+
+    /* Persistence */
+
+    @Test
+    public void testDurableRecovery() throws Exception {
+        Path dir = Files.createTempDirectory("flights");
+        String kept;
+        try (FlightManager durable = new FlightManager(dir)) {
+            durable.addAirport("A", "A", 0, 0);
+            durable.addAirport("B", "B", 1, 1);
+            durable.addAirport("C", "C", 2, 2);
+            durable.defineRoute("A-A", "B-B", "C-C");
+            durable.addPlane("P", 4);
+            durable.assignPlaneToLeg("A-A", "B-B", "P");
+            durable.assignPlaneToLeg("B-B", "C-C", "P");
+            kept = durable.bookSeat("U1", "A-A", "C-C", 2);
+            durable.cancelBooking(durable.bookSeat("U2", "B-B", "C-C", 3));
+        }
+
+        try (FlightManager recovered = new FlightManager(dir)) {
+            assertEquals(3, recovered.listAirports().size());
+            assertEquals(Integer.valueOf(4), recovered.getSeats().get("P"));
+            assertEquals(Arrays.asList(kept), recovered.listBookingsForLeg("B-B", "C-C"));
+            assertEquals("U1", recovered.getBooking(kept).getPassengerId());
+            assertEquals(Arrays.asList(1, 3, 4), recovered.findAvailableSeats("A-A", "C-C").get("A-A;B-B"));
+            assertThrows("Expected FlightException when a recovered seat is booked again", FlightException.class,
+                         ()->recovered.bookSeat("U3", "A-A", "B-B", 2));
+        }
+    }
+
+    @Test
+    public void testDurableRecoveryFromSnapshotAndTornLog() throws Exception {
+        Path dir = Files.createTempDirectory("flights");
+        try (FlightManager durable = new FlightManager(dir, 5)) {
+            durable.addAirport("A", "A", 0, 0);
+            durable.addAirport("B", "B", 1, 1);
+            durable.defineRoute("A-A", "B-B");
+            durable.addPlane("P", 10);
+            durable.assignPlaneToLeg("A-A", "B-B", "P");
+            for (int seat = 1; seat <= 7; seat++) {
+                durable.bookSeat("U" + seat, "A-A", "B-B", seat);
+            }
+        }
+        // simulate a crash in the middle of appending a record
+        try (DirectoryStream<Path> logs = Files.newDirectoryStream(dir, "*.log")) {
+            for (Path log : logs) {
+                Files.write(log, new byte[] {0, 0, 0, 42, 1, 2}, StandardOpenOption.APPEND);
+            }
+        }
+
+        try (FlightManager recovered = new FlightManager(dir, 5)) {
+            assertEquals(0.7, recovered.occupationRate("A-A", "B-B"), 0.0001);
+            recovered.bookSeat("U8", "A-A", "B-B", 8);
+        }
+        try (FlightManager recovered = new FlightManager(dir, 5)) {
+            assertEquals(0.8, recovered.occupationRate("A-A", "B-B"), 0.0001);
+        }
+    }
+
+    @Test
+    public void testFailedCheckpointDoesNotFailMutations() throws Exception {
+        Path dir = Files.createTempDirectory("flights");
+        Path blocker = dir.resolve("snapshot.bin.tmp");
+        try (FlightManager durable = new FlightManager(dir, 2)) {
+            // a non-empty directory where the snapshot is written makes every checkpoint fail after its log switch
+            Files.createDirectories(blocker.resolve("x"));
+            durable.addAirport("A", "A", 0, 0);
+            durable.addAirport("B", "B", 1, 1);
+            durable.defineRoute("A-A", "B-B");
+            durable.addPlane("P", 10);
+            durable.assignPlaneToLeg("A-A", "B-B", "P");
+            // background checkpoints fail, the mutations that trigger them do not
+            for (int seat = 1; seat <= 6; seat++) {
+                durable.bookSeat("U" + seat, "A-A", "B-B", seat);
+            }
+            FlightException failed = assertThrows("Expected FlightException from an explicit checkpoint",
+                                                  FlightException.class, durable::checkpoint);
+            assertEquals(FlightException.Reason.STORAGE, failed.getReason());
+            durable.bookSeat("U7", "A-A", "B-B", 7);
+        }
+        Files.delete(blocker.resolve("x"));
+        Files.delete(blocker);
+
+        // no snapshot was written: the state comes back from the chain of logs
+        try (FlightManager recovered = new FlightManager(dir, 2)) {
+            assertEquals(0.7, recovered.occupationRate("A-A", "B-B"), 0.0001);
+            recovered.checkpoint();
+        }
+        try (FlightManager recovered = new FlightManager(dir, 2)) {
+            assertEquals(0.7, recovered.occupationRate("A-A", "B-B"), 0.0001);
+        }
+    }
+
+    @Test
+    public void testCheckpointDuringBookingsAndCancellations() throws Exception {
+        Path dir = Files.createTempDirectory("flights");
+        Map<String, List<String>> expected = new HashMap<>();
+        try (FlightManager durable = new FlightManager(dir, 50)) {
+            durable.addAirport("A", "A", 0, 0);
+            durable.addAirport("B", "B", 1, 1);
+            durable.addAirport("C", "C", 2, 2);
+            durable.defineRoute("A-A", "B-B", "C-C");
+            durable.addPlane("P", 300);
+            durable.assignPlaneToLeg("A-A", "B-B", "P");
+            durable.assignPlaneToLeg("B-B", "C-C", "P");
+
+            // snapshots are streamed while seats are booked and cancelled on both legs
+            ExecutorService pool = Executors.newFixedThreadPool(3);
+            List<Future<?>> results = new ArrayList<>();
+            for (int t = 0; t < 2; t++) {
+                int base = t * 150;
+                String from = t == 0 ? "A-A" : "B-B";
+                results.add(pool.submit(() -> {
+                    for (int seat = base + 1; seat <= base + 150; seat++) {
+                        String code = durable.bookSeat("U" + seat, from, "C-C", seat);
+                        if (seat % 3 == 0) {
+                            durable.cancelBooking(code);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            results.add(pool.submit(() -> {
+                for (int i = 0; i < 20; i++) {
+                    durable.checkpoint();
+                }
+                return null;
+            }));
+            for (Future<?> result : results) {
+                result.get();
+            }
+            pool.shutdown();
+            expected.put("A-A;B-B", durable.listBookingsForLeg("A-A", "B-B"));
+            expected.put("B-B;C-C", durable.listBookingsForLeg("B-B", "C-C"));
+        }
+        assertEquals(100, expected.get("A-A;B-B").size());
+        assertEquals(200, expected.get("B-B;C-C").size());
+
+        try (FlightManager recovered = new FlightManager(dir, 50)) {
+            assertEquals(expected.get("A-A;B-B"), recovered.listBookingsForLeg("A-A", "B-B"));
+            assertEquals(expected.get("B-B;C-C"), recovered.listBookingsForLeg("B-B", "C-C"));
+            assertEquals(200.0 / 300, recovered.occupationRate("B-B", "C-C"), 0.0001);
+        }
+    }
+
+    @Test
+    public void testDurableRejectsWhatCannotBeLogged() throws Exception {
+        Path dir = Files.createTempDirectory("flights");
+        char[] chars = new char[70_000];
+        Arrays.fill(chars, 'x');
+        String tooLong = new String(chars);
+        try (FlightManager durable = new FlightManager(dir)) {
+            durable.addAirport("A", "A", 0, 0);
+            durable.addAirport("B", "B", 1, 1);
+            durable.defineRoute("A-A", "B-B");
+            durable.addPlane("P", 10);
+            durable.assignPlaneToLeg("A-A", "B-B", "P");
+            durable.bookSeat("U1", "A-A", "B-B", 1);
+
+            // rejected before anything changes
+            FlightException rejected = assertThrows("Expected FlightException for an id too long to be logged",
+                                                    FlightException.class, ()->durable.bookSeat(tooLong, "A-A", "B-B", 2));
+            assertEquals(FlightException.Reason.INVALID_ARGUMENT, rejected.getReason());
+            assertThrows("Expected FlightException for a group with an id too long to be logged", FlightException.class,
+                         ()->durable.bookSeats("A-A", "B-B", Arrays.asList(new SeatRequest("U3", 3), new SeatRequest(tooLong, 4))));
+            assertThrows("Expected FlightException for a plane id too long to be logged", FlightException.class,
+                         ()->durable.addPlane(tooLong, 10));
+            assertEquals(0.1, durable.occupationRate("A-A", "B-B"), 0.0001);
+            assertFalse(durable.getSeats().containsKey(tooLong));
+            durable.bookSeat("U2", "A-A", "B-B", 2);
+        }
+        try (FlightManager recovered = new FlightManager(dir)) {
+            assertEquals(0.2, recovered.occupationRate("A-A", "B-B"), 0.0001);
+        }
+
+        // an in-memory manager has nothing to log
+        fm.addAirport("A", "A", 0, 0);
+        fm.addAirport("B", "B", 1, 1);
+        fm.defineRoute("A-A", "B-B");
+        fm.addPlane("P", 10);
+        fm.assignPlaneToLeg("A-A", "B-B", "P");
+        assertEquals(tooLong, fm.getBooking(fm.bookSeat(tooLong, "A-A", "B-B", 1)).getPassengerId());
+    }
+
+    @Test
+    public void testCorruptSnapshotFailsRecovery() throws Exception {
+        Path dir = Files.createTempDirectory("flights");
+        try (FlightManager durable = new FlightManager(dir)) {
+            durable.addAirport("A", "A", 0, 0);
+            durable.addAirport("B", "B", 1, 1);
+            durable.defineRoute("A-A", "B-B");
+            durable.addPlane("P", 10);
+            durable.assignPlaneToLeg("A-A", "B-B", "P");
+            for (int seat = 1; seat <= 5; seat++) {
+                durable.bookSeat("U" + seat, "A-A", "B-B", seat);
+            }
+            durable.checkpoint();
+        }
+        // flip a byte in the middle of the snapshot: the state must not come back with part of it missing
+        Path snapshot = dir.resolve("snapshot.bin");
+        byte[] original = Files.readAllBytes(snapshot);
+        byte[] content = original.clone();
+        content[content.length / 2] ^= 0x55;
+        Files.write(snapshot, content);
+
+        FlightException failed = assertThrows("Expected FlightException for a corrupt snapshot", FlightException.class,
+                                              ()->new FlightManager(dir).close());
+        assertEquals(FlightException.Reason.STORAGE, failed.getReason());
+
+        // nor with its last records cut off
+        Files.write(snapshot, Arrays.copyOf(original, original.length - 3));
+        assertThrows("Expected FlightException for a truncated snapshot", FlightException.class,
+                     ()->new FlightManager(dir).close());
+    }
+
+    @Test
+    public void testDurableRecoveryFromZeroFilledOrGarbageTail() throws Exception {
+        Path dir = Files.createTempDirectory("flights");
+        try (FlightManager durable = new FlightManager(dir)) {
+            durable.addAirport("A", "A", 0, 0);
+            durable.addAirport("B", "B", 1, 1);
+            durable.defineRoute("A-A", "B-B");
+            durable.addPlane("P", 10);
+            durable.assignPlaneToLeg("A-A", "B-B", "P");
+            durable.bookSeat("U1", "A-A", "B-B", 1);
+        }
+        // a crash can leave preallocated zeros after the last record
+        try (DirectoryStream<Path> logs = Files.newDirectoryStream(dir, "*.log")) {
+            for (Path log : logs) {
+                Files.write(log, new byte[16], StandardOpenOption.APPEND);
+            }
+        }
+        try (FlightManager recovered = new FlightManager(dir)) {
+            assertEquals(0.1, recovered.occupationRate("A-A", "B-B"), 0.0001);
+            recovered.bookSeat("U2", "A-A", "B-B", 2);
+        }
+
+        // a garbage length must not be trusted to size the record
+        try (DirectoryStream<Path> logs = Files.newDirectoryStream(dir, "*.log")) {
+            for (Path log : logs) {
+                Files.write(log, new byte[] {0x7f, (byte) 0xff, (byte) 0xff, (byte) 0xf0, 0, 0, 0, 0},
+                            StandardOpenOption.APPEND);
+            }
+        }
+        try (FlightManager recovered = new FlightManager(dir)) {
+            assertEquals(0.2, recovered.occupationRate("A-A", "B-B"), 0.0001);
+        }
+    }
+
+    @Test
+    public void testMappedSeatStore() throws Exception {
+        Path file = Files.createTempFile("seats", ".bin");
+        try (FlightManager mapped = new FlightManager()) {
+            mapped.addAirport("A", "A", 0, 0);
+            mapped.addAirport("B", "B", 1, 1);
+            mapped.addAirport("C", "C", 2, 2);
+            mapped.defineRoute("A-A", "B-B", "C-C");
+            mapped.addPlane("P", 100);
+            mapped.addPlane("Big", 300);
+            mapped.assignPlaneToLeg("A-A", "B-B", "P");
+            String moved = mapped.bookSeat("U1", "A-A", "B-B", 70);
+
+            mapped.useMappedSeatStore(file, 200);
+            assertThrows("Expected FlightException for a plane larger than the store slots", FlightException.class,
+                         ()->mapped.assignPlaneToLeg("B-B", "C-C", "Big"));
+            mapped.assignPlaneToLeg("B-B", "C-C", "P");
+            assertThrows("Expected FlightException when a carried-over seat is booked again", FlightException.class,
+                         ()->mapped.bookSeat("U2", "A-A", "C-C", 70));
+            mapped.bookSeat("U2", "A-A", "C-C", 65);
+            assertEquals(0.02, mapped.occupationRate("A-A", "B-B"), 0.0001);
+            mapped.cancelBooking(moved);
+            assertEquals(0.01, mapped.occupationRate("A-A", "B-B"), 0.0001);
+            assertFalse(mapped.findAvailableSeats("A-A", "C-C").get("B-B;C-C").contains(65));
+        }
+    }
+
+    /* Bulk import */
+
+    @Test
+    public void testImportNetwork() throws Exception {
+        Path dir = Files.createTempDirectory("network");
+        Path airportsFile = Files.write(dir.resolve("airports.csv"), Arrays.asList(
+                "# name,city,latitude,longitude", "MXP,Milan,45.63,8.72", "FCO,Rome,41.80,12.25", "", "NAP,Naples,40.88,14.29"));
+        Path routesFile = Files.write(dir.resolve("routes.csv"), Arrays.asList("Milan-MXP,Rome-FCO,Naples-NAP"));
+        Path fleetFile = Files.write(dir.resolve("fleet.csv"), Arrays.asList("A320,150", "ATR,70"));
+        Path assignmentsFile = Files.write(dir.resolve("assignments.csv"), Arrays.asList(
+                "Milan-MXP,Rome-FCO,A320", "Rome-FCO,Naples-NAP,ATR"));
+        FlightManager imported = new FlightManager();
+        imported.importNetwork(airportsFile, routesFile, fleetFile, assignmentsFile);
+
+        assertEquals(3, imported.listAirports().size());
+        assertEquals(Integer.valueOf(70), imported.getSeats().get("ATR"));
+        assertEquals(70, imported.findAvailableSeats("Milan-MXP", "Naples-NAP").get("Rome-FCO;Naples-NAP").size());
+        imported.bookSeat("U1", "Milan-MXP", "Naples-NAP", 10);
+
+        // a bad row rejects the whole import
+        Path badFleet = Files.write(dir.resolve("bad.csv"), Arrays.asList("B737,180", "E190,lots"));
+        FlightException error = assertThrows("Expected FlightException for a malformed row", FlightException.class,
+                ()->imported.importNetwork(null, null, badFleet, null));
+        assertTrue(error.getMessage().contains(":2:"));
+        Path duplicate = Files.write(dir.resolve("dup.csv"), Arrays.asList("B737,180", "ATR,70"));
+        assertThrows("Expected FlightException for an existing plane", FlightException.class,
+                ()->imported.importNetwork(null, null, duplicate, null));
+        assertFalse(imported.getSeats().containsKey("B737"));
+    }
+
+    @Test
+    public void testImportNetworkFailingSeatStoreChangesNothing() throws Exception {
+        Path dir = Files.createTempDirectory("network");
+        Path airportsFile = Files.write(dir.resolve("airports.csv"), Arrays.asList("MXP,Milan,45.63,8.72", "FCO,Rome,41.80,12.25"));
+        Path routesFile = Files.write(dir.resolve("routes.csv"), Arrays.asList("Milan-MXP,Rome-FCO"));
+        Path fleetFile = Files.write(dir.resolve("fleet.csv"), Arrays.asList("A320,150"));
+        Path assignmentsFile = Files.write(dir.resolve("assignments.csv"), Arrays.asList("Milan-MXP,Rome-FCO,A320"));
+        FlightManager imported = new FlightManager();
+        imported.useMappedSeatStore(dir.resolve("seats.bin"), 200);
+        // a closed store cannot map the slot of the new leg
+        imported.close();
+
+        FlightException error = assertThrows("Expected FlightException when the seat store cannot grow", FlightException.class,
+                ()->imported.importNetwork(airportsFile, routesFile, fleetFile, assignmentsFile));
+        assertEquals(FlightException.Reason.STORAGE, error.getReason());
+        assertTrue(imported.listAirports().isEmpty());
+        assertTrue(imported.getSeats().isEmpty());
+    }
+
+    /* Geospatial queries */
+
+    @Test
+    public void testNearestAndRadiusQueries() throws FlightException {
+        FlightManager geo = new FlightManager();
+        geo.addAirport("MXP", "Milan", 45.63, 8.72);
+        geo.addAirport("LIN", "Milan", 45.45, 9.28);
+        geo.addAirport("TRN", "Turin", 45.20, 7.65);
+        geo.addAirport("FCO", "Rome", 41.80, 12.25);
+        geo.addAirport("NRT", "Tokyo", 35.77, 140.39);
+        geo.addAirport("SUV", "Suva", -18.04, 178.56);
+        geo.addAirport("APW", "Apia", -13.83, -172.01);
+
+        assertEquals(Arrays.asList("Milan-LIN", "Milan-MXP", "Turin-TRN"), geo.nearestAirports(45.46, 9.19, 3));
+        assertEquals(Arrays.asList("Milan-LIN", "Milan-MXP", "Turin-TRN"), geo.airportsWithin(45.46, 9.19, 150));
+        assertEquals(7, geo.airportsWithin(0, 0, 30000).size());
+        assertTrue(geo.nearestAirports(0, 0, 0).isEmpty());
+        // across the antimeridian
+        assertEquals(Arrays.asList("Suva-SUV", "Apia-APW"), geo.nearestAirports(-16, 179.9, 2));
+        assertEquals(Arrays.asList("Apia-APW"), geo.airportsWithin(-14, -171.5, 100));
+    }
+
+    /* Alternative itineraries */
+
+    @Test
+    public void testFindItineraries() throws FlightException {
+        FlightManager net = new FlightManager();
+        for (String name : Arrays.asList("A", "B", "C", "D", "E", "F")) {
+            net.addAirport(name, name, 0, 0);
+        }
+        net.defineRoute("A-A", "D-D");
+        net.defineRoute("A-A", "B-B", "D-D");
+        net.defineRoute("A-A", "C-C", "D-D");
+        net.defineRoute("A-A", "E-E", "F-F", "D-D");
+        net.addPlane("P", 2);
+        for (String leg : Arrays.asList("A-A;D-D", "A-A;B-B", "B-B;D-D", "A-A;C-C", "C-C;D-D", "A-A;E-E", "E-E;F-F", "F-F;D-D")) {
+            String[] ends = leg.split(";");
+            net.assignPlaneToLeg(ends[0], ends[1], "P");
+        }
+
+        assertEquals(Arrays.asList(Arrays.asList("A-A;D-D"),
+                                   Arrays.asList("A-A;B-B", "B-B;D-D"),
+                                   Arrays.asList("A-A;C-C", "C-C;D-D")),
+                     net.findItineraries("A-A", "D-D", 5, 1));
+        assertEquals(4, net.findItineraries("A-A", "D-D", 5, 2).size());
+        assertEquals(1, net.findItineraries("A-A", "D-D", 1, 2).size());
+
+        // a full leg, and two legs with free seats but none in common
+        net.bookSeat("U1", "B-B", "D-D", 1);
+        net.bookSeat("U2", "B-B", "D-D", 2);
+        net.bookSeat("U3", "A-A", "C-C", 1);
+        net.bookSeat("U4", "C-C", "D-D", 2);
+        assertEquals(Arrays.asList(Arrays.asList("A-A;D-D"),
+                                   Arrays.asList("A-A;E-E", "E-E;F-F", "F-F;D-D")),
+                     net.findItineraries("A-A", "D-D", 5, 2));
+        assertTrue(net.findItineraries("D-D", "A-A", 5, 2).isEmpty());
+        assertThrows("Expected FlightException for an unknown airport", FlightException.class,
+                     ()->net.findItineraries("A-A", "X-X", 5, 2));
+    }
+
+    @Test
+    public void testLegLookupFromHub() throws FlightException {
+        FlightManager net = new FlightManager();
+        net.addAirport("H", "H", 0, 0);
+        for (int i = 0; i < 100; i++) {
+            net.addAirport("D" + i, "D" + i, 0, 0);
+            net.defineRoute("H-H", "D" + i + "-D" + i);
+        }
+        // routes already defined do not add legs again
+        net.defineRoute("H-H", "D7-D7");
+        net.defineRoute("H-H", "D99-D99");
+        net.addPlane("P", 4);
+        for (int i = 0; i < 100; i += 3) {
+            net.assignPlaneToLeg("H-H", "D" + i + "-D" + i, "P");
+        }
+        net.bookSeat("U1", "H-H", "D99-D99", 2);
+
+        assertEquals(0.25, net.occupationRate("H-H", "D99-D99"), 0.0001);
+        assertEquals(0.0, net.occupationRate("H-H", "D98-D98"), 0.0001);
+        assertEquals(1, net.findItineraries("H-H", "D6-D6", 5, 0).size());
+        assertTrue(net.findItineraries("H-H", "D7-D7", 5, 0).isEmpty());
+        assertEquals(1, net.findItineraries("H-H", "D99-D99", 5, 3).size());
+        assertEquals(1, net.getBookingsForLeg("H-H", "D99-D99").size());
+        assertTrue(net.getBookingsForLeg("D99-D99", "H-H").isEmpty());
+    }
+
+    @Test
+    public void testFindItinerariesOrdersTiesAndBoundsStops() throws FlightException {
+        FlightManager net = new FlightManager();
+        for (String name : Arrays.asList("A", "B", "C", "D")) {
+            net.addAirport(name, name, 0, 0);
+        }
+        // the search reaches C first, but the tied itinerary through B comes first alphabetically
+        net.defineRoute("A-A", "C-C", "D-D");
+        net.defineRoute("A-A", "B-B", "D-D");
+        net.defineRoute("A-A", "D-D");
+        net.addPlane("P", 2);
+        for (String leg : Arrays.asList("A-A;C-C", "C-C;D-D", "A-A;B-B", "B-B;D-D", "A-A;D-D")) {
+            String[] ends = leg.split(";");
+            net.assignPlaneToLeg(ends[0], ends[1], "P");
+        }
+
+        List<List<String>> expected = Arrays.asList(Arrays.asList("A-A;D-D"),
+                                                    Arrays.asList("A-A;B-B", "B-B;D-D"),
+                                                    Arrays.asList("A-A;C-C", "C-C;D-D"));
+        assertEquals(expected, net.findItineraries("A-A", "D-D", 5, 1));
+        assertEquals(expected.subList(0, 2), net.findItineraries("A-A", "D-D", 2, 1));
+        assertEquals(expected, net.findItineraries("A-A", "D-D", 5, Integer.MAX_VALUE));
+        assertEquals(expected, net.findItineraries("A-A", "D-D", 5, 1_000_000_000));
+        assertTrue(net.findItineraries("A-A", "D-D", 5, -1).isEmpty());
+    }
+
+    @Test
+    public void testReachabilityFollowsNewRoutes() throws FlightException {
+        FlightManager net = new FlightManager();
+        for (String name : Arrays.asList("A", "B", "C", "D")) {
+            net.addAirport(name, name, 0, 0);
+        }
+        net.addPlane("P", 10);
+        net.defineRoute("A-A", "B-B");
+        net.defineRoute("C-C", "D-D");
+        net.assignPlaneToLeg("A-A", "B-B", "P");
+        net.assignPlaneToLeg("C-C", "D-D", "P");
+        assertThrows("Expected FlightException for an unreachable pair", FlightException.class,
+                     ()->net.findAvailableSeats("A-A", "D-D"));
+        assertThrows("Expected FlightException for a reversed route", FlightException.class,
+                     ()->net.bookSeat("U1", "B-B", "A-A", 1));
+
+        // joining the two components makes every downstream airport reachable at once
+        net.defineRoute("B-B", "C-C");
+        net.assignPlaneToLeg("B-B", "C-C", "P");
+        assertEquals(3, net.findAvailableSeats("A-A", "D-D").size());
+        net.bookSeat("U1", "A-A", "D-D", 1);
+        assertThrows("Expected FlightException for a reversed route", FlightException.class,
+                     ()->net.findAvailableSeats("D-D", "A-A"));
+    }
+
+    /* Metrics */
+
+    @Test
+    public void testOperationMetrics() throws FlightException {
+        FlightManager net = new FlightManager();
+        net.addAirport("A", "A", 0, 0);
+        net.addAirport("B", "B", 1, 1);
+        net.addAirport("C", "C", 2, 2);
+        net.defineRoute("A-A", "B-B", "C-C");
+        net.addPlane("P", 10);
+        net.assignPlaneToLeg("A-A", "B-B", "P");
+        net.assignPlaneToLeg("B-B", "C-C", "P");
+        net.bookSeat("U0", "A-A", "B-B", 9);
+        assertEquals(0, net.getMetrics().getCount("bookSeat"));
+
+        net.setMetricsEnabled(true);
+        net.bookSeat("U1", "A-A", "C-C", 1);
+        net.bookSeat("U2", "A-A", "C-C", 2);
+        FlightException taken = assertThrows("Expected FlightException for a taken seat", FlightException.class,
+                                             ()->net.bookSeat("U3", "A-A", "B-B", 1));
+        assertEquals(FlightException.Reason.SEAT_UNAVAILABLE, taken.getReason());
+        assertThrows("Expected FlightException for an unreachable pair", FlightException.class,
+                     ()->net.bookSeat("U4", "C-C", "A-A", 1));
+        net.occupationRate("A-A", "B-B");
+
+        FlightMetrics metrics = net.getMetrics();
+        assertEquals(4, metrics.getCount("bookSeat"));
+        assertEquals(2, metrics.getErrorCount("bookSeat"));
+        assertEquals(Long.valueOf(1), metrics.getErrorCounts("bookSeat").get(FlightException.Reason.NO_ROUTE));
+        assertEquals(1, metrics.getCount("occupationRate"));
+        assertTrue(metrics.getLatencyPercentile("bookSeat", 99) > 0);
+        assertEquals(Long.valueOf(2), metrics.getRouteDepths().get(2));
+        assertEquals(1, metrics.getRouteRejections());
+        assertEquals(Long.valueOf(2), metrics.getLegBookings().get("B-B;C-C"));
+
+        net.setMetricsEnabled(false);
+        net.bookSeat("U5", "A-A", "C-C", 3);
+        assertEquals(4, net.getMetrics().getCount("bookSeat"));
+    }
 }